@@ -0,0 +1,92 @@
+package com.github.tangjw.toastbar.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many threads showing toasts while the owner thread drains their calls and cycles the current
+ * toast, as when background work reports progress to the UI.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentionBenchmark {
+
+    private static final int QUEUE_CAPACITY = 16;
+    // Producers back off when this many calls wait for the owner, bounding the backlog
+    private static final int MAX_BACKLOG = 4096;
+
+    @State(Scope.Group)
+    public static class Shared {
+        ManualScheduler scheduler;
+        ToastCoordinator coordinator;
+        final AtomicInteger backlog = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            scheduler = new ManualScheduler(null);
+            coordinator = new ToastCoordinator(scheduler, scheduler);
+            coordinator.setQueueCapacity(QUEUE_CAPACITY);
+            coordinator.setOverflowPolicy(ToastCoordinator.OVERFLOW_DROP_LOWEST);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        private static final int CALLBACKS = 32;
+
+        final NoopCallback[] callbacks = new NoopCallback[CALLBACKS];
+        int next;
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < CALLBACKS; i++) {
+                callbacks[i] = new NoopCallback();
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("showFromManyThreads")
+    @GroupThreads(7)
+    public boolean produce(Shared shared, Producer producer) {
+        while (shared.backlog.get() >= MAX_BACKLOG) {
+            Thread.yield();
+        }
+        NoopCallback callback = producer.callbacks[producer.next];
+        producer.next = (producer.next + 1) % Producer.CALLBACKS;
+        shared.backlog.incrementAndGet();
+        shared.coordinator.show(ToastCoordinator.LENGTH_SHORT, producer.next % 3, null, callback);
+        return shared.coordinator.isCurrentOrNext(callback);
+    }
+
+    @Benchmark
+    @Group("showFromManyThreads")
+    @GroupThreads(1)
+    public int drain(Shared shared) {
+        ManualScheduler scheduler = shared.scheduler;
+        if (scheduler.owner != Thread.currentThread()) {
+            scheduler.owner = Thread.currentThread();
+        }
+        shared.backlog.set(0);
+        int drained = scheduler.runExecuted();
+        ToastRecord current = shared.coordinator.getCurrentRecord();
+        if (current != null) {
+            ToastCoordinator.Callback callback = current.callback.get();
+            if (callback != null) {
+                shared.coordinator.dismiss(callback, 0);
+                shared.coordinator.onDismissed(callback);
+            }
+        }
+        return drained;
+    }
+}
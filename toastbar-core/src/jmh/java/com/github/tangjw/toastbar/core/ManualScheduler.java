@@ -0,0 +1,76 @@
+package com.github.tangjw.toastbar.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link Scheduler} whose owner thread runs deferred work when the benchmark tells it to, and
+ * the {@link Clock} that time passes on while it does.
+ */
+final class ManualScheduler implements Scheduler, Clock {
+
+    volatile Thread owner;
+
+    private final ConcurrentLinkedQueue<Runnable> executed = new ConcurrentLinkedQueue<>();
+    private final ArrayList<Runnable> delayed = new ArrayList<>();
+    private long delayedUntil;
+    private volatile long now;
+
+    ManualScheduler(Thread owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return now;
+    }
+
+    @Override
+    public boolean isOwnerThread() {
+        return Thread.currentThread() == owner;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executed.offer(task);
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMs) {
+        delayed.add(task);
+        delayedUntil = Math.max(delayedUntil, now + delayMs);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        while (delayed.remove(task)) {
+            // Remove every pending run
+        }
+    }
+
+    /**
+     * Runs the tasks handed to {@link #execute} so far. Owner thread only.
+     */
+    int runExecuted() {
+        int count = 0;
+        Runnable task;
+        while ((task = executed.poll()) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Advances the clock past every scheduled delay and runs the scheduled tasks. Owner thread
+     * only.
+     */
+    void runDelayed() {
+        now = Math.max(now, delayedUntil);
+        for (int i = delayed.size() - 1; i >= 0; i--) {
+            if (i < delayed.size()) {
+                delayed.remove(i).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.tangjw.toastbar.core;
+
+/**
+ * A toast that does nothing when told to show, dismiss or repeat, so benchmarks measure the
+ * coordinator alone.
+ */
+final class NoopCallback implements ToastCoordinator.Callback {
+
+    int shown;
+    int dismissed;
+    int repeated;
+
+    @Override
+    public void show() {
+        shown++;
+    }
+
+    @Override
+    public void dismiss(int event) {
+        dismissed++;
+    }
+
+    @Override
+    public void repeat(int count) {
+        repeated++;
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.tangjw.toastbar.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ToastQueue} operations on a burst of records of mixed priorities.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class QueueBurstBenchmark {
+
+    @Param({"8", "64", "512"})
+    public int burst;
+
+    private ToastQueue queue;
+    private ToastRecord[] records;
+
+    @Setup
+    public void setUp() {
+        NoopCallback callback = new NoopCallback();
+        Random random = new Random(42);
+        queue = new ToastQueue();
+        records = new ToastRecord[burst];
+        for (int i = 0; i < burst; i++) {
+            records[i] = new ToastRecord(ToastCoordinator.LENGTH_SHORT, random.nextInt(3), null,
+                    callback, 0);
+        }
+    }
+
+    @Benchmark
+    public int offerThenPollAll() {
+        for (ToastRecord record : records) {
+            queue.offer(record);
+        }
+        int polled = 0;
+        while (queue.poll() != null) {
+            polled++;
+        }
+        return polled;
+    }
+
+    @Benchmark
+    public int offerThenRemoveAll() {
+        for (ToastRecord record : records) {
+            queue.offer(record);
+        }
+        int removed = 0;
+        for (int i = records.length - 1; i >= 0; i--) {
+            if (queue.remove(records[i])) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Picking overflow victims on a full queue, then draining it.
+     */
+    @Benchmark
+    public int offerThenEvictAll() {
+        for (ToastRecord record : records) {
+            queue.offer(record);
+        }
+        int evicted = 0;
+        while (!queue.isEmpty()) {
+            queue.remove((evicted & 1) == 0 ? queue.lowest() : queue.oldest());
+            evicted++;
+        }
+        return evicted;
+    }
+}
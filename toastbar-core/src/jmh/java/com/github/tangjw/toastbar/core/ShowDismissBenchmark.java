@@ -0,0 +1,105 @@
+package com.github.tangjw.toastbar.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Show and dismiss throughput of a {@link ToastCoordinator} driven from its owner thread, the
+ * way {@code ToastbarManager} is driven from the main thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ShowDismissBenchmark {
+
+    private static final int CALLBACKS = 16;
+    private static final String CONTENT_KEY = "Saved";
+
+    private ManualScheduler scheduler;
+    private ToastCoordinator coordinator;
+    private NoopCallback[] callbacks;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        scheduler = new ManualScheduler(Thread.currentThread());
+        coordinator = new ToastCoordinator(scheduler, scheduler);
+        coordinator.setCoalescingWindow(Long.MAX_VALUE);
+        callbacks = new NoopCallback[CALLBACKS];
+        for (int i = 0; i < CALLBACKS; i++) {
+            callbacks[i] = new NoopCallback();
+        }
+    }
+
+    /**
+     * One full lifecycle: shown, entrance finished, dismissed, exit finished.
+     */
+    @Benchmark
+    public ToastRecord showThenDismiss() {
+        NoopCallback callback = nextCallback();
+        coordinator.show(ToastCoordinator.LENGTH_SHORT, 0, null, callback);
+        coordinator.onShown(callback);
+        ToastRecord record = coordinator.getCurrentRecord();
+        coordinator.dismiss(callback, 0);
+        coordinator.onDismissed(callback);
+        return record;
+    }
+
+    /**
+     * A new toast replacing the current one, the common case of a burst of messages.
+     */
+    @Benchmark
+    public ToastRecord showReplacingCurrent() {
+        ToastRecord current = coordinator.getCurrentRecord();
+        NoopCallback callback = nextCallback();
+        coordinator.show(ToastCoordinator.LENGTH_SHORT, 0, null, callback);
+        if (current != null) {
+            ToastCoordinator.Callback previous = current.callback.get();
+            if (previous != null) {
+                coordinator.onDismissed(previous);
+            }
+        }
+        coordinator.onShown(callback);
+        return coordinator.getCurrentRecord();
+    }
+
+    /**
+     * The same message shown again while on screen, merged into the current toast.
+     */
+    @Benchmark
+    public boolean showCoalesced() {
+        if (coordinator.getCurrentRecord() == null) {
+            NoopCallback callback = nextCallback();
+            coordinator.show(ToastCoordinator.LENGTH_SHORT, 0, CONTENT_KEY, callback);
+            coordinator.onShown(callback);
+        }
+        return coordinator.tryCoalesce(CONTENT_KEY);
+    }
+
+    /**
+     * A toast shown until it times out.
+     */
+    @Benchmark
+    public ToastRecord showThenTimeOut() {
+        NoopCallback callback = nextCallback();
+        coordinator.show(ToastCoordinator.LENGTH_SHORT, 0, null, callback);
+        coordinator.onShown(callback);
+        ToastRecord record = coordinator.getCurrentRecord();
+        scheduler.runDelayed();
+        coordinator.onDismissed(callback);
+        return record;
+    }
+
+    private NoopCallback nextCallback() {
+        NoopCallback callback = callbacks[next];
+        next = (next + 1) % CALLBACKS;
+        return callback;
+    }
+}
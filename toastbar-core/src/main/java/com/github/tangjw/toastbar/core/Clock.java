@@ -0,0 +1,17 @@
+package com.github.tangjw.toastbar.core;
+
+/**
+ * The time source of a {@link ToastCoordinator}.
+ */
+public interface Clock {
+
+    /**
+     * A clock based on {@link System#nanoTime()}.
+     */
+    Clock SYSTEM = () -> System.nanoTime() / 1_000_000L;
+
+    /**
+     * Returns milliseconds since some fixed point, never going backwards.
+     */
+    long uptimeMillis();
+}
@@ -0,0 +1,108 @@
+package com.github.tangjw.toastbar.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * The records with a pending timeout, as an indexed binary min-heap ordered by deadline. Like
+ * {@link ToastQueue}, every record remembers its slot, so rescheduling and cancelling a timeout
+ * are O(log n) and never scan.
+ */
+final class DeadlineQueue {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    @NonNull
+    private ToastRecord[] heap = new ToastRecord[INITIAL_CAPACITY];
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(@NonNull ToastRecord record) {
+        int index = record.deadlineIndex;
+        return index >= 0 && index < size && heap[index] == record;
+    }
+
+    /**
+     * Returns the record whose deadline comes first.
+     */
+    @Nullable
+    ToastRecord peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    /**
+     * Sets the deadline of {@code record}, adding it if it has none.
+     */
+    void schedule(@NonNull ToastRecord record, long deadline) {
+        record.deadline = deadline;
+        if (contains(record)) {
+            siftDown(siftUp(record.deadlineIndex));
+            return;
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        heap[size] = record;
+        record.deadlineIndex = size;
+        siftUp(size++);
+    }
+
+    boolean remove(@NonNull ToastRecord record) {
+        if (!contains(record)) {
+            return false;
+        }
+        int index = record.deadlineIndex;
+        record.deadlineIndex = -1;
+        int last = --size;
+        if (index != last) {
+            heap[index] = heap[last];
+            heap[index].deadlineIndex = index;
+            heap[last] = null;
+            siftDown(siftUp(index));
+        } else {
+            heap[last] = null;
+        }
+        return true;
+    }
+
+    private int siftUp(int index) {
+        ToastRecord record = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (record.deadline >= heap[parent].deadline) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].deadlineIndex = index;
+            index = parent;
+        }
+        heap[index] = record;
+        record.deadlineIndex = index;
+        return index;
+    }
+
+    private void siftDown(int index) {
+        ToastRecord record = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && heap[right].deadline < heap[child].deadline) {
+                child = right;
+            }
+            if (heap[child].deadline >= record.deadline) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].deadlineIndex = index;
+            index = child;
+        }
+        heap[index] = record;
+        record.deadlineIndex = index;
+    }
+}
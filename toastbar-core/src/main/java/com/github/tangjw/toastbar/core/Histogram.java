@@ -0,0 +1,132 @@
+package com.github.tangjw.toastbar.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of millisecond durations with fixed, power of two buckets: bucket 0 counts
+ * values up to 1ms, bucket {@code i} values in {@code (2^(i-1), 2^i]}ms and the last bucket
+ * everything above {@code 2^(BUCKET_COUNT-2)}ms.
+ *
+ * <p>{@link #record} never allocates or blocks and can be called from any thread. A {@link
+ * #snapshot()} read while values are being recorded may be off by the values in flight.
+ */
+public final class Histogram {
+
+    public static final int BUCKET_COUNT = 16;
+
+    @NonNull
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    @NonNull
+    private final AtomicLong sum = new AtomicLong();
+    @NonNull
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Returns the largest value counted by {@code bucket}, {@link Long#MAX_VALUE} for the last one.
+     */
+    public static long getBucketUpperBound(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    static int bucketOf(long valueMs) {
+        if (valueMs <= 1) {
+            return 0;
+        }
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(valueMs - 1));
+    }
+
+    public void record(long valueMs) {
+        long value = Math.max(0, valueMs);
+        buckets.incrementAndGet(bucketOf(value));
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    @NonNull
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, sum.get(), max.get());
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * The contents of a {@link Histogram} at one point in time.
+     */
+    public static final class Snapshot {
+        @NonNull
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(@NonNull long[] counts, long sum, long max) {
+            this.counts = counts;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBucketCount(int bucket) {
+            return counts[bucket];
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the {@code percentile}th value, capped at
+         * the largest value recorded, or 0 if nothing was recorded.
+         *
+         * @param percentile between 0 and 100.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(getBucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
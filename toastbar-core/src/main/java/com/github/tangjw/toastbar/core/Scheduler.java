@@ -0,0 +1,30 @@
+package com.github.tangjw.toastbar.core;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The thread a {@link ToastCoordinator} is confined to, and the way it runs deferred work there.
+ * On Android this is the main thread and its {@code Handler}.
+ */
+public interface Scheduler {
+
+    /**
+     * Returns whether the calling thread is the one the coordinator's state belongs to.
+     */
+    boolean isOwnerThread();
+
+    /**
+     * Runs {@code task} on the owner thread, later. Can be called from any thread.
+     */
+    void execute(@NonNull Runnable task);
+
+    /**
+     * Runs {@code task} on the owner thread after {@code delayMs}. Owner thread only.
+     */
+    void schedule(@NonNull Runnable task, long delayMs);
+
+    /**
+     * Cancels all pending runs of {@code task} scheduled with {@link #schedule}. Owner thread only.
+     */
+    void cancel(@NonNull Runnable task);
+}
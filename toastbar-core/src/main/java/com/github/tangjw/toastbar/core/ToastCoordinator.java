@@ -0,0 +1,829 @@
+package com.github.tangjw.toastbar.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides which toast is shown and for how long, independent of any UI toolkit.
+ *
+ * <p>All state is owned by the {@link Scheduler}'s thread and never locked. Calls made on that
+ * thread run immediately; calls from other threads are put on a lock-free queue that the owner
+ * thread drains in order. {@link #isCurrent} and {@link #isCurrentOrNext} can be called from any
+ * thread: off the owner thread they are answered from a snapshot published after every change, so
+ * they do not see calls that are still waiting to be drained.
+ *
+ * <p>Timeouts, and the release of a toast held back by the rate limit, are kept in one deadline
+ * ordered heap served by a single timer task. Rescheduling or cancelling a timeout only updates
+ * the heap, and the task re-arms itself for the next deadline when it fires. The task is never
+ * {@link Scheduler#cancel cancelled}: a deadline earlier than every pending run schedules one more
+ * run, and the later one then fires for nothing. Usually just one run is pending.
+ */
+public class ToastCoordinator {
+
+    /**
+     * Show until dismissed.
+     */
+    public static final int LENGTH_INDEFINITE = -2;
+    /**
+     * Show for {@link #SHORT_DURATION_MS}.
+     */
+    public static final int LENGTH_SHORT = -1;
+    /**
+     * Show for {@link #LONG_DURATION_MS}.
+     */
+    public static final int LENGTH_LONG = 0;
+
+    public static final int SHORT_DURATION_MS = 1500;
+    public static final int LONG_DURATION_MS = 2750;
+
+    /**
+     * Dismissed because its duration passed.
+     */
+    public static final int DISMISS_EVENT_TIMEOUT = 2;
+    /**
+     * Dismissed to make room for a new toast.
+     */
+    public static final int DISMISS_EVENT_CONSECUTIVE = 4;
+
+    /**
+     * When the queue is full, drop the record that has been waiting longest.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    /**
+     * When the queue is full, drop the record with the lowest priority, or reject the new one if it
+     * has the lowest priority of all.
+     */
+    public static final int OVERFLOW_DROP_LOWEST = 1;
+    /**
+     * When the queue is full, reject the new record.
+     */
+    public static final int OVERFLOW_REJECT = 2;
+
+    /**
+     * When over the rate limit, drop the new toast.
+     */
+    public static final int RATE_LIMIT_DROP = 0;
+    /**
+     * When over the rate limit, keep the current toast up for longer instead of showing the new
+     * one, or drop the new one if nothing is shown.
+     */
+    public static final int RATE_LIMIT_MERGE = 1;
+    /**
+     * When over the rate limit, hold the new toast back until the limit lets it through. Only the
+     * latest toast held back is kept, earlier ones are dropped.
+     */
+    public static final int RATE_LIMIT_DEFER = 2;
+
+    // A single waiting record replaced by newer ones matches the historical next-slot behaviour
+    private static final int DEFAULT_QUEUE_CAPACITY = 1;
+
+    private static final ToastRecord[] EMPTY_SNAPSHOT = new ToastRecord[1];
+
+    /**
+     * The toast a record stands for. Called on the owner thread.
+     */
+    public interface Callback {
+
+        void show();
+
+        void dismiss(int event);
+
+        /**
+         * Called when an equal toast was merged into this one.
+         *
+         * @param count how many times the toast has been shown, including the first time.
+         */
+        void repeat(int count);
+    }
+
+    @NonNull
+    private final Clock clock;
+    @NonNull
+    private final Scheduler scheduler;
+    @NonNull
+    private final ToastMetrics metrics;
+
+    /**
+     * Calls made off the owner thread, waiting to be run on it.
+     */
+    @NonNull
+    private final ConcurrentLinkedQueue<Runnable> pendingCommands = new ConcurrentLinkedQueue<>();
+    @NonNull
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private boolean draining;
+    @NonNull
+    private final Runnable drainCommands = new Runnable() {
+        @Override
+        public void run() {
+            drainScheduled.set(false);
+            drainPendingCommands();
+        }
+    };
+
+    /**
+     * The current record at index 0, possibly {@code null}, followed by the queued ones. Replaced,
+     * never mutated, whenever the set of records changes.
+     */
+    @NonNull
+    private volatile ToastRecord[] snapshot = EMPTY_SNAPSHOT;
+    private boolean snapshotDirty;
+
+    @Nullable
+    private ToastRecord currentRecord;
+    @NonNull
+    private final ToastQueue queue = new ToastQueue();
+    /**
+     * The current and all queued records by callback. Keys are weak like {@link
+     * ToastRecord#callback}, so records never keep their toast alive.
+     */
+    @NonNull
+    private final Map<Callback, ToastRecord> records = new WeakHashMap<>();
+
+    /**
+     * The current and queued records by {@link ToastRecord#contentKey}, used for coalescing.
+     */
+    @NonNull
+    private final Map<Object, ToastRecord> recordsByContent = new HashMap<>();
+
+    /**
+     * The timeouts of shown records and the release of the {@link #deferredRecord}, all served by
+     * the one timer task.
+     */
+    @NonNull
+    private final DeadlineQueue timeouts = new DeadlineQueue();
+    /**
+     * When the pending runs of the timer task fire, the latest first and so the earliest last. Runs
+     * are never cancelled, see {@link #armTimer()}.
+     */
+    @NonNull
+    private long[] armedAt = new long[2];
+    private int armedCount;
+    @NonNull
+    private final Runnable fireTimeouts = new Runnable() {
+        @Override
+        public void run() {
+            // Runs fire in order, so this is the earliest one
+            armedCount--;
+            drainPendingCommands();
+            long now = clock.uptimeMillis();
+            ToastRecord record;
+            while ((record = timeouts.peek()) != null && record.deadline <= now) {
+                timeouts.remove(record);
+                if (record == deferredRecord) {
+                    releaseDeferredRecord();
+                    publishSnapshot();
+                } else {
+                    handleTimeout(record);
+                }
+            }
+            armTimer();
+        }
+    };
+
+    /**
+     * Limits how often new toasts are let in, or {@code null} for no limit.
+     */
+    @Nullable
+    private TokenBucket rateLimit;
+    private int rateLimitPolicy = RATE_LIMIT_DROP;
+    /**
+     * The toast held back by {@link #RATE_LIMIT_DEFER}, kept in a record that is never queued. Its
+     * deadline in {@link #timeouts} is when the limit lets it through.
+     */
+    @Nullable
+    private ToastRecord deferredRecord;
+
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int overflowPolicy = OVERFLOW_DROP_OLDEST;
+    private long coalescingWindowMs;
+
+    public ToastCoordinator(@NonNull Clock clock, @NonNull Scheduler scheduler) {
+        this(clock, scheduler, new ToastMetrics());
+    }
+
+    /**
+     * Makes a coordinator recording into {@code metrics}, which may be shared with others as
+     * recording is lock-free.
+     */
+    public ToastCoordinator(@NonNull Clock clock, @NonNull Scheduler scheduler,
+                            @NonNull ToastMetrics metrics) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics of this coordinator. Can be read from any thread.
+     */
+    @NonNull
+    public ToastMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the record being shown. Owner thread only.
+     */
+    @Nullable
+    public ToastRecord getCurrentRecord() {
+        return currentRecord;
+    }
+
+    /**
+     * Sets how many records may wait behind the current one. Defaults to 1.
+     */
+    public void setQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + capacity);
+        }
+        if (!scheduler.isOwnerThread()) {
+            post(() -> setQueueCapacity(capacity));
+            return;
+        }
+        drainPendingCommands();
+        queueCapacity = capacity;
+        while (queue.size() > queueCapacity) {
+            drop(overflowPolicy == OVERFLOW_DROP_LOWEST ? queue.lowest() : queue.oldest());
+            metrics.incrementOverflowed();
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Sets what happens when a record is shown while the queue is full. Defaults to {@link
+     * #OVERFLOW_DROP_OLDEST}.
+     */
+    public void setOverflowPolicy(int policy) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> setOverflowPolicy(policy));
+            return;
+        }
+        overflowPolicy = policy;
+    }
+
+    /**
+     * Enables coalescing: a toast whose content equals that of the current or a queued toast last
+     * posted at most {@code windowMs} ago is merged into it instead of being shown. The merge
+     * restarts the timeout of a current toast and updates its repeat count in place. Set to 0, the
+     * default, to disable.
+     */
+    public void setCoalescingWindow(long windowMs) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> setCoalescingWindow(windowMs));
+            return;
+        }
+        coalescingWindowMs = Math.max(0, windowMs);
+    }
+
+    /**
+     * Limits new toasts to {@code permitsPerSecond} on average, letting bursts of up to {@code
+     * burst} through at once, and sets what happens to toasts over the limit. Toasts already shown
+     * or queued are not limited when shown again. Set {@code permitsPerSecond} to 0, the default,
+     * to disable; a toast held back is then shown right away.
+     */
+    public void setRateLimit(double permitsPerSecond, int burst, int policy) {
+        if (permitsPerSecond > 0 && burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1: " + burst);
+        }
+        if (!scheduler.isOwnerThread()) {
+            post(() -> setRateLimit(permitsPerSecond, burst, policy));
+            return;
+        }
+        drainPendingCommands();
+        rateLimit = permitsPerSecond > 0
+                ? new TokenBucket(permitsPerSecond, burst, clock.uptimeMillis())
+                : null;
+        rateLimitPolicy = policy;
+        if (deferredRecord != null) {
+            timeouts.remove(deferredRecord);
+            releaseDeferredRecord();
+            armTimer();
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Applies the rate limit to a toast that is about to be built, so callers can skip building one
+     * that would be dropped or merged anyway. Nothing is limited off the owner thread, nor under
+     * {@link #RATE_LIMIT_DEFER}, which needs the toast to show it later.
+     *
+     * @return whether the toast was limited and nothing needs to be shown.
+     */
+    public boolean tryRateLimit() {
+        if (!scheduler.isOwnerThread() || rateLimit == null || rateLimitPolicy == RATE_LIMIT_DEFER) {
+            return false;
+        }
+        drainPendingCommands();
+        if (rateLimit.hasToken(clock.uptimeMillis())) {
+            return false;
+        }
+        limit(LENGTH_INDEFINITE, 0, null, null);
+        return true;
+    }
+
+    /**
+     * Merges a toast with the given content into an equal one that is shown or queued, if
+     * coalescing is enabled. Lets callers skip building a toast that would be merged anyway.
+     * Off the owner thread nothing is merged.
+     *
+     * @return whether the content was merged and nothing needs to be shown.
+     */
+    public boolean tryCoalesce(@Nullable Object contentKey) {
+        if (!scheduler.isOwnerThread()) {
+            return false;
+        }
+        drainPendingCommands();
+        return coalesce(contentKey);
+    }
+
+    public void show(int duration, int priority, @Nullable Object contentKey,
+                     @NonNull Callback callback) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> show(duration, priority, contentKey, callback));
+            return;
+        }
+        drainPendingCommands();
+        showRecord(duration, priority, contentKey, callback);
+        publishSnapshot();
+    }
+
+    private void showRecord(int duration, int priority, @Nullable Object contentKey,
+                            @NonNull Callback callback) {
+        ToastRecord record = records.get(callback);
+        if (record == null && coalesce(contentKey)) {
+            return;
+        }
+        if (record == null && rateLimit != null && !rateLimit.tryAcquire(clock.uptimeMillis())) {
+            limit(duration, priority, contentKey, callback);
+            return;
+        }
+        if (record != null && record == currentRecord) {
+            // Means that the callback is already shown. We'll just update the duration
+            currentRecord.duration = duration;
+            currentRecord.priority = priority;
+            updateContentKey(currentRecord, contentKey);
+
+            // If this is the toast currently being shown, re-schedule its timeout
+            scheduleTimeout(currentRecord);
+            return;
+        } else if (record != null) {
+            // We'll just update the duration and its place in the queue
+            record.duration = duration;
+            record.priority = priority;
+            updateContentKey(record, contentKey);
+            queue.update(record);
+        } else {
+            // Else, we need to create a new record and queue it
+            record = new ToastRecord(duration, priority, contentKey, callback, clock.uptimeMillis());
+            if (!enqueue(record)) {
+                return;
+            }
+        }
+
+        if (currentRecord != null) {
+            if (currentRecord.dismissing || record.priority < currentRecord.priority) {
+                // Either the current toast is already on its way out and the head of the queue
+                // follows it, or it outranks us and we wait for its timeout
+                return;
+            }
+            if (cancelRecord(currentRecord, DISMISS_EVENT_CONSECUTIVE)) {
+                // If we currently have a toast, try and cancel it and wait in line
+                return;
+            }
+            // Clear out the current toast
+            removeRecord(currentRecord);
+            currentRecord = null;
+        }
+        // Otherwise, just show it now
+        showNextRecord();
+    }
+
+    public void dismiss(@NonNull Callback callback, int event) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> dismiss(callback, event));
+            return;
+        }
+        drainPendingCommands();
+        if (isDeferred(callback)) {
+            timeouts.remove(deferredRecord);
+            deferredRecord = null;
+            return;
+        }
+        ToastRecord record = records.get(callback);
+        if (record == null) {
+            return;
+        }
+        if (record == currentRecord) {
+            if (!currentRecord.dismissing) {
+                cancelRecord(currentRecord, event);
+            }
+        } else {
+            // Never shown, take it out of the queue before telling it
+            removeRecord(record);
+            cancelRecord(record, event);
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Should be called when a toast is no longer displayed. This is after any exit animation has
+     * finished.
+     */
+    public void onDismissed(@NonNull Callback callback) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> onDismissed(callback));
+            return;
+        }
+        drainPendingCommands();
+        if (isCurrentRecord(callback)) {
+            // If the callback is from the toast currently shown, remove it and show a new one
+            removeRecord(currentRecord);
+            currentRecord = null;
+            showNextRecord();
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Should be called when a toast is being shown. This is after any entrance animation has
+     * finished.
+     */
+    public void onShown(@NonNull Callback callback) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> onShown(callback));
+            return;
+        }
+        drainPendingCommands();
+        if (isCurrentRecord(callback)) {
+            scheduleTimeout(currentRecord);
+        }
+    }
+
+    public void pauseTimeout(@NonNull Callback callback) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> pauseTimeout(callback));
+            return;
+        }
+        drainPendingCommands();
+        if (isCurrentRecord(callback) && !currentRecord.paused) {
+            currentRecord.paused = true;
+            timeouts.remove(currentRecord);
+        }
+    }
+
+    public void restoreTimeoutIfPaused(@NonNull Callback callback) {
+        if (!scheduler.isOwnerThread()) {
+            post(() -> restoreTimeoutIfPaused(callback));
+            return;
+        }
+        drainPendingCommands();
+        if (isCurrentRecord(callback) && currentRecord.paused) {
+            currentRecord.paused = false;
+            scheduleTimeout(currentRecord);
+        }
+    }
+
+    public boolean isCurrent(@Nullable Callback callback) {
+        if (scheduler.isOwnerThread()) {
+            return isCurrentRecord(callback);
+        }
+        ToastRecord current = snapshot[0];
+        return current != null && current.isToast(callback);
+    }
+
+    public boolean isCurrentOrNext(@Nullable Callback callback) {
+        if (callback == null) {
+            return false;
+        }
+        if (scheduler.isOwnerThread()) {
+            return records.containsKey(callback) || isDeferred(callback);
+        }
+        ToastRecord[] records = snapshot;
+        for (ToastRecord record : records) {
+            if (record != null && record.isToast(callback)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queues a call made off the owner thread and makes sure the owner thread drains it.
+     */
+    private void post(@NonNull Runnable command) {
+        pendingCommands.offer(command);
+        if (drainScheduled.compareAndSet(false, true)) {
+            scheduler.execute(drainCommands);
+        }
+    }
+
+    /**
+     * Runs calls made off the owner thread so far, so that they take effect before a call made on
+     * the owner thread after them.
+     */
+    private void drainPendingCommands() {
+        if (draining) {
+            // A drained command re-entered us, the outer loop keeps the order
+            return;
+        }
+        draining = true;
+        try {
+            Runnable command;
+            while ((command = pendingCommands.poll()) != null) {
+                command.run();
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    /**
+     * Publishes the current set of records for {@link #isCurrent} and {@link #isCurrentOrNext}
+     * calls off the owner thread.
+     */
+    private void publishSnapshot() {
+        if (!snapshotDirty) {
+            return;
+        }
+        snapshotDirty = false;
+        ToastRecord[] records = new ToastRecord[queue.size() + 1];
+        records[0] = currentRecord;
+        queue.copyTo(records, 1);
+        snapshot = records;
+    }
+
+    private void showNextRecord() {
+        ToastRecord next;
+        while ((next = queue.poll()) != null) {
+            currentRecord = next;
+            snapshotDirty = true;
+
+            final Callback callback = currentRecord.callback.get();
+            if (callback != null) {
+                metrics.recordQueueWait(clock.uptimeMillis() - currentRecord.queuedAt);
+                metrics.incrementShown();
+                callback.show();
+                return;
+            }
+            // The callback doesn't exist any more, clear out the toast and try the next one
+            metrics.incrementGcDropped();
+            removeRecord(currentRecord);
+            currentRecord = null;
+        }
+    }
+
+    /**
+     * Queues a new record, applying the overflow policy if the queue is full.
+     *
+     * @return whether the record was queued.
+     */
+    private boolean enqueue(@NonNull ToastRecord record) {
+        if (queue.size() >= queueCapacity) {
+            ToastRecord victim;
+            metrics.incrementOverflowed();
+            switch (overflowPolicy) {
+                case OVERFLOW_REJECT:
+                    return false;
+                case OVERFLOW_DROP_LOWEST:
+                    victim = queue.lowest();
+                    if (victim != null && victim.priority > record.priority) {
+                        return false;
+                    }
+                    break;
+                case OVERFLOW_DROP_OLDEST:
+                default:
+                    victim = queue.oldest();
+                    break;
+            }
+            drop(victim);
+        }
+        record.queuedAt = clock.uptimeMillis();
+        queue.offer(record);
+        snapshotDirty = true;
+        Callback callback = record.callback.get();
+        if (callback != null) {
+            records.put(callback, record);
+        }
+        if (record.contentKey != null) {
+            recordsByContent.put(record.contentKey, record);
+        }
+        return true;
+    }
+
+    /**
+     * Re-keys a record whose toast changed its content while shown or queued.
+     */
+    private void updateContentKey(@NonNull ToastRecord record, @Nullable Object contentKey) {
+        record.lastPostedAt = clock.uptimeMillis();
+        if (contentKey == null ? record.contentKey == null : contentKey.equals(record.contentKey)) {
+            return;
+        }
+        if (record.contentKey != null && recordsByContent.get(record.contentKey) == record) {
+            recordsByContent.remove(record.contentKey);
+        }
+        record.contentKey = contentKey;
+        record.repeatCount = 1;
+        if (contentKey != null) {
+            recordsByContent.put(contentKey, record);
+        }
+    }
+
+    private boolean coalesce(@Nullable Object contentKey) {
+        if (coalescingWindowMs <= 0 || contentKey == null) {
+            return false;
+        }
+        ToastRecord record = recordsByContent.get(contentKey);
+        if (record == null || record.dismissing) {
+            return false;
+        }
+        long now = clock.uptimeMillis();
+        if (now - record.lastPostedAt > coalescingWindowMs) {
+            return false;
+        }
+        Callback callback = record.callback.get();
+        if (callback == null) {
+            return false;
+        }
+        record.lastPostedAt = now;
+        record.repeatCount++;
+        if (record == currentRecord && !record.paused) {
+            // Extend the timeout, counting from now
+            scheduleTimeout(record);
+        }
+        callback.repeat(record.repeatCount);
+        return true;
+    }
+
+    /**
+     * Applies the rate limit policy to a new toast over the limit.
+     *
+     * @param callback the toast, or {@code null} if it has not been built.
+     */
+    private void limit(int duration, int priority, @Nullable Object contentKey,
+                       @Nullable Callback callback) {
+        TokenBucket rateLimit = this.rateLimit;
+        switch (rateLimitPolicy) {
+            case RATE_LIMIT_DEFER:
+                if (callback != null && rateLimit != null) {
+                    defer(duration, priority, contentKey, callback, rateLimit);
+                    return;
+                }
+                break;
+            case RATE_LIMIT_MERGE:
+                if (currentRecord != null && !currentRecord.dismissing) {
+                    currentRecord.lastPostedAt = clock.uptimeMillis();
+                    if (!currentRecord.paused) {
+                        // Extend the timeout, counting from now
+                        scheduleTimeout(currentRecord);
+                    }
+                    metrics.incrementRateLimitMerged();
+                    return;
+                }
+                break;
+            case RATE_LIMIT_DROP:
+            default:
+                break;
+        }
+        metrics.incrementRateLimitDropped();
+    }
+
+    private void defer(int duration, int priority, @Nullable Object contentKey,
+                       @NonNull Callback callback, @NonNull TokenBucket rateLimit) {
+        long now = clock.uptimeMillis();
+        if (deferredRecord != null) {
+            timeouts.remove(deferredRecord);
+            if (!deferredRecord.isToast(callback)) {
+                // Superseded before it got through
+                metrics.incrementRateLimitDropped();
+            }
+        }
+        deferredRecord = new ToastRecord(duration, priority, contentKey, callback, now);
+        metrics.incrementRateLimitDeferred();
+        timeouts.schedule(deferredRecord, now + rateLimit.delayUntilToken(now));
+        armTimer();
+    }
+
+    /**
+     * Shows the toast held back by {@link #RATE_LIMIT_DEFER} if the limit lets it through by now,
+     * otherwise waits some more. The caller arms the timer.
+     */
+    private void releaseDeferredRecord() {
+        ToastRecord deferred = deferredRecord;
+        if (deferred == null) {
+            return;
+        }
+        long now = clock.uptimeMillis();
+        if (rateLimit != null && !rateLimit.hasToken(now)) {
+            timeouts.schedule(deferred, now + rateLimit.delayUntilToken(now));
+            return;
+        }
+        deferredRecord = null;
+        Callback callback = deferred.callback.get();
+        if (callback == null) {
+            metrics.incrementGcDropped();
+            return;
+        }
+        showRecord(deferred.duration, deferred.priority, deferred.contentKey, callback);
+    }
+
+    private boolean isDeferred(@Nullable Callback callback) {
+        return deferredRecord != null && deferredRecord.isToast(callback);
+    }
+
+    /**
+     * Forgets a queued record that never got to be shown, like an overwritten next toast.
+     */
+    private void drop(@Nullable ToastRecord record) {
+        if (record != null) {
+            removeRecord(record);
+        }
+    }
+
+    private void removeRecord(@NonNull ToastRecord record) {
+        queue.remove(record);
+        timeouts.remove(record);
+        snapshotDirty = true;
+        Callback callback = record.callback.get();
+        if (callback != null && records.get(callback) == record) {
+            records.remove(callback);
+        }
+        if (record.contentKey != null && recordsByContent.get(record.contentKey) == record) {
+            recordsByContent.remove(record.contentKey);
+        }
+    }
+
+    private boolean cancelRecord(@NonNull ToastRecord record, int event) {
+        final Callback callback = record.callback.get();
+        if (callback != null) {
+            // Make sure we remove any timeouts for the record
+            timeouts.remove(record);
+            record.dismissing = true;
+            if (event == DISMISS_EVENT_CONSECUTIVE) {
+                metrics.incrementSuperseded();
+            }
+            callback.dismiss(event);
+            return true;
+        }
+        metrics.incrementGcDropped();
+        return false;
+    }
+
+    private boolean isCurrentRecord(@Nullable Callback callback) {
+        return currentRecord != null && currentRecord.isToast(callback);
+    }
+
+    private void scheduleTimeout(@NonNull ToastRecord r) {
+        if (r.duration == LENGTH_INDEFINITE) {
+            // If we're set to indefinite, we don't want to set a timeout
+            timeouts.remove(r);
+            return;
+        }
+
+        int durationMs = LONG_DURATION_MS;
+        if (r.duration > 0) {
+            durationMs = r.duration;
+        } else if (r.duration == LENGTH_SHORT) {
+            durationMs = SHORT_DURATION_MS;
+        }
+        timeouts.schedule(r, clock.uptimeMillis() + durationMs);
+        armTimer();
+    }
+
+    /**
+     * Makes sure the timer task fires no later than the earliest deadline.
+     *
+     * <p>A run made too late by an earlier deadline is not cancelled, as cancelling scans the owner
+     * thread's whole queue. Another run is scheduled ahead of it instead, and the stale one finds
+     * nothing due when it fires and only re-arms. That only happens for a deadline earlier than all
+     * pending runs, so usually just one is pending.
+     */
+    private void armTimer() {
+        ToastRecord next = timeouts.peek();
+        if (next == null) {
+            return;
+        }
+        long now = clock.uptimeMillis();
+        long fireAt = Math.max(now, next.deadline);
+        if (armedCount > 0 && armedAt[armedCount - 1] <= fireAt) {
+            // A pending run fires first and re-arms for this deadline
+            return;
+        }
+        if (armedCount == armedAt.length) {
+            armedAt = Arrays.copyOf(armedAt, armedCount * 2);
+        }
+        armedAt[armedCount++] = fireAt;
+        scheduler.schedule(fireTimeouts, fireAt - now);
+    }
+
+    private void handleTimeout(@NonNull ToastRecord record) {
+        if (currentRecord == record && cancelRecord(record, DISMISS_EVENT_TIMEOUT)) {
+            metrics.incrementTimedOut();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.github.tangjw.toastbar.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of a {@link ToastCoordinator} and the toasts it shows.
+ *
+ * <p>Recording is lock-free and allocation free. {@link #snapshot()} copies everything on demand,
+ * for reporting to whatever telemetry the app uses.
+ */
+public final class ToastMetrics {
+
+    private static final int SHOWN = 0;
+    private static final int SUPERSEDED = 1;
+    private static final int TIMED_OUT = 2;
+    private static final int GC_DROPPED = 3;
+    private static final int OVERFLOWED = 4;
+    private static final int RATE_LIMIT_DROPPED = 5;
+    private static final int RATE_LIMIT_MERGED = 6;
+    private static final int RATE_LIMIT_DEFERRED = 7;
+    private static final int COUNTER_COUNT = 8;
+
+    @NonNull
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+    @NonNull
+    private final Histogram showLatency = new Histogram();
+    @NonNull
+    private final Histogram queueWait = new Histogram();
+    @NonNull
+    private final Histogram enterAnimation = new Histogram();
+    @NonNull
+    private final Histogram exitAnimation = new Histogram();
+
+    /**
+     * Records the time from a toast being asked to show to its entrance having finished.
+     */
+    public void recordShowLatency(long durationMs) {
+        showLatency.record(durationMs);
+    }
+
+    public void recordEnterAnimation(long durationMs) {
+        enterAnimation.record(durationMs);
+    }
+
+    public void recordExitAnimation(long durationMs) {
+        exitAnimation.record(durationMs);
+    }
+
+    void recordQueueWait(long durationMs) {
+        queueWait.record(durationMs);
+    }
+
+    void incrementShown() {
+        counters.incrementAndGet(SHOWN);
+    }
+
+    void incrementSuperseded() {
+        counters.incrementAndGet(SUPERSEDED);
+    }
+
+    void incrementTimedOut() {
+        counters.incrementAndGet(TIMED_OUT);
+    }
+
+    void incrementGcDropped() {
+        counters.incrementAndGet(GC_DROPPED);
+    }
+
+    void incrementOverflowed() {
+        counters.incrementAndGet(OVERFLOWED);
+    }
+
+    void incrementRateLimitDropped() {
+        counters.incrementAndGet(RATE_LIMIT_DROPPED);
+    }
+
+    void incrementRateLimitMerged() {
+        counters.incrementAndGet(RATE_LIMIT_MERGED);
+    }
+
+    void incrementRateLimitDeferred() {
+        counters.incrementAndGet(RATE_LIMIT_DEFERRED);
+    }
+
+    @NonNull
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Clears all counters and histograms, e.g. after a snapshot was reported. Values recorded
+     * concurrently may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            counters.set(i, 0);
+        }
+        showLatency.reset();
+        queueWait.reset();
+        enterAnimation.reset();
+        exitAnimation.reset();
+    }
+
+    /**
+     * The contents of {@link ToastMetrics} at one point in time.
+     */
+    public static final class Snapshot {
+        private final long shown;
+        private final long superseded;
+        private final long timedOut;
+        private final long gcDropped;
+        private final long overflowed;
+        private final long rateLimitDropped;
+        private final long rateLimitMerged;
+        private final long rateLimitDeferred;
+        @NonNull
+        private final Histogram.Snapshot showLatency;
+        @NonNull
+        private final Histogram.Snapshot queueWait;
+        @NonNull
+        private final Histogram.Snapshot enterAnimation;
+        @NonNull
+        private final Histogram.Snapshot exitAnimation;
+
+        Snapshot(@NonNull ToastMetrics metrics) {
+            shown = metrics.counters.get(SHOWN);
+            superseded = metrics.counters.get(SUPERSEDED);
+            timedOut = metrics.counters.get(TIMED_OUT);
+            gcDropped = metrics.counters.get(GC_DROPPED);
+            overflowed = metrics.counters.get(OVERFLOWED);
+            rateLimitDropped = metrics.counters.get(RATE_LIMIT_DROPPED);
+            rateLimitMerged = metrics.counters.get(RATE_LIMIT_MERGED);
+            rateLimitDeferred = metrics.counters.get(RATE_LIMIT_DEFERRED);
+            showLatency = metrics.showLatency.snapshot();
+            queueWait = metrics.queueWait.snapshot();
+            enterAnimation = metrics.enterAnimation.snapshot();
+            exitAnimation = metrics.exitAnimation.snapshot();
+        }
+
+        /**
+         * Returns how many toasts were shown.
+         */
+        public long getShownCount() {
+            return shown;
+        }
+
+        /**
+         * Returns how many shown toasts were dismissed early to make room for a newer one.
+         */
+        public long getSupersededCount() {
+            return superseded;
+        }
+
+        public long getTimedOutCount() {
+            return timedOut;
+        }
+
+        /**
+         * Returns how many records were skipped because their toast had been garbage collected.
+         */
+        public long getGcDroppedCount() {
+            return gcDropped;
+        }
+
+        /**
+         * Returns how many records were dropped or rejected because the queue was full.
+         */
+        public long getOverflowedCount() {
+            return overflowed;
+        }
+
+        /**
+         * Returns how many requests the rate limit dropped, including deferred ones replaced by a
+         * newer request before they were let through.
+         */
+        public long getRateLimitDroppedCount() {
+            return rateLimitDropped;
+        }
+
+        /**
+         * Returns how many requests the rate limit merged into the current toast.
+         */
+        public long getRateLimitMergedCount() {
+            return rateLimitMerged;
+        }
+
+        /**
+         * Returns how many requests the rate limit held back to be shown later.
+         */
+        public long getRateLimitDeferredCount() {
+            return rateLimitDeferred;
+        }
+
+        /**
+         * Returns the time from a toast being asked to show to its entrance having finished.
+         */
+        @NonNull
+        public Histogram.Snapshot getShowLatency() {
+            return showLatency;
+        }
+
+        /**
+         * Returns the time records spent queued behind the current toast.
+         */
+        @NonNull
+        public Histogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        @NonNull
+        public Histogram.Snapshot getEnterAnimation() {
+            return enterAnimation;
+        }
+
+        @NonNull
+        public Histogram.Snapshot getExitAnimation() {
+            return exitAnimation;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.tangjw.toastbar.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * The records waiting behind the current toast, as an indexed binary max-heap ordered by priority
+ * and then by arrival. Every record remembers its slot in the heap, so membership checks are O(1)
+ * and insertion and arbitrary removal are O(log n).
+ *
+ * <p>Looking up the oldest or lowest record for an overflow policy scans the heap; the queue is
+ * bounded by {@link ToastCoordinator#setQueueCapacity(int)} and that only happens when it is full.
+ */
+final class ToastQueue {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    @NonNull
+    private ToastRecord[] heap = new ToastRecord[INITIAL_CAPACITY];
+    private int size;
+    private long nextSequence;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(@NonNull ToastRecord record) {
+        int index = record.heapIndex;
+        return index >= 0 && index < size && heap[index] == record;
+    }
+
+    /**
+     * Copies the queued records, in no particular order, into {@code dest} starting at {@code
+     * offset}.
+     */
+    void copyTo(@NonNull ToastRecord[] dest, int offset) {
+        System.arraycopy(heap, 0, dest, offset, size);
+    }
+
+    void offer(@NonNull ToastRecord record) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        record.sequence = nextSequence++;
+        heap[size] = record;
+        record.heapIndex = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Removes and returns the record that should be shown next.
+     */
+    @Nullable
+    ToastRecord poll() {
+        if (size == 0) {
+            return null;
+        }
+        ToastRecord head = heap[0];
+        removeAt(0);
+        return head;
+    }
+
+    boolean remove(@NonNull ToastRecord record) {
+        if (!contains(record)) {
+            return false;
+        }
+        removeAt(record.heapIndex);
+        return true;
+    }
+
+    /**
+     * Restores the heap order after the priority of a queued record changed.
+     */
+    void update(@NonNull ToastRecord record) {
+        if (contains(record)) {
+            siftDown(siftUp(record.heapIndex));
+        }
+    }
+
+    /**
+     * Returns the record that has been waiting longest.
+     */
+    @Nullable
+    ToastRecord oldest() {
+        ToastRecord oldest = null;
+        for (int i = 0; i < size; i++) {
+            if (oldest == null || heap[i].sequence < oldest.sequence) {
+                oldest = heap[i];
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Returns the record that would be shown last, i.e. the newest one of the lowest priority.
+     */
+    @Nullable
+    ToastRecord lowest() {
+        ToastRecord lowest = null;
+        // Nothing comes after the last record in heap order, so it has no children and is a leaf
+        for (int i = size >>> 1; i < size; i++) {
+            ToastRecord record = heap[i];
+            if (lowest == null || comesBefore(lowest, record)) {
+                lowest = record;
+            }
+        }
+        return lowest;
+    }
+
+    private void removeAt(int index) {
+        ToastRecord removed = heap[index];
+        removed.heapIndex = -1;
+        int last = --size;
+        if (index != last) {
+            heap[index] = heap[last];
+            heap[index].heapIndex = index;
+            heap[last] = null;
+            siftDown(siftUp(index));
+        } else {
+            heap[last] = null;
+        }
+    }
+
+    private int siftUp(int index) {
+        ToastRecord record = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!comesBefore(record, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].heapIndex = index;
+            index = parent;
+        }
+        heap[index] = record;
+        record.heapIndex = index;
+        return index;
+    }
+
+    private void siftDown(int index) {
+        ToastRecord record = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && comesBefore(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!comesBefore(heap[child], record)) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].heapIndex = index;
+            index = child;
+        }
+        heap[index] = record;
+        record.heapIndex = index;
+    }
+
+    private static boolean comesBefore(
+            @NonNull ToastRecord a, @NonNull ToastRecord b) {
+        return a.priority > b.priority || (a.priority == b.priority && a.sequence < b.sequence);
+    }
+}
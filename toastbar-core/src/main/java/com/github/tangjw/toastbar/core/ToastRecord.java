@@ -0,0 +1,62 @@
+package com.github.tangjw.toastbar.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The state a {@link ToastCoordinator} keeps for one shown or queued toast. Fields are owned by the
+ * coordinator's thread.
+ */
+public final class ToastRecord {
+    @NonNull
+    final WeakReference<ToastCoordinator.Callback> callback;
+    int duration;
+    int priority;
+    @Nullable
+    Object contentKey;
+    long lastPostedAt;
+    /**
+     * When the record was queued, for {@link ToastMetrics#recordQueueWait}.
+     */
+    long queuedAt;
+    int repeatCount = 1;
+    boolean paused;
+    /**
+     * Whether a dismiss has been dispatched and we are waiting for {@link
+     * ToastCoordinator#onDismissed}.
+     */
+    boolean dismissing;
+    // Maintained by ToastQueue
+    long sequence;
+    int heapIndex = -1;
+    // Maintained by DeadlineQueue
+    long deadline;
+    int deadlineIndex = -1;
+
+    ToastRecord(int duration, int priority, @Nullable Object contentKey,
+                @NonNull ToastCoordinator.Callback callback, long now) {
+        this.callback = new WeakReference<>(callback);
+        this.duration = duration;
+        this.priority = priority;
+        this.contentKey = contentKey;
+        this.lastPostedAt = now;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    boolean isToast(@Nullable ToastCoordinator.Callback callback) {
+        return callback != null && this.callback.get() == callback;
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.tangjw.toastbar.core;
+
+/**
+ * A token bucket refilled continuously at a fixed rate up to its capacity. Not thread safe; used
+ * on the owner thread of a {@link ToastCoordinator} only.
+ */
+final class TokenBucket {
+
+    private final int capacity;
+    private final double tokensPerMs;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * Makes a full bucket.
+     *
+     * @param permitsPerSecond the rate tokens are added at.
+     * @param capacity         how many tokens the bucket holds, i.e. the largest burst let through.
+     */
+    TokenBucket(double permitsPerSecond, int capacity, long now) {
+        this.capacity = capacity;
+        this.tokensPerMs = permitsPerSecond / 1000;
+        this.tokens = capacity;
+        this.refilledAt = now;
+    }
+
+    /**
+     * Takes a token if there is one.
+     */
+    boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Returns whether {@link #tryAcquire} would succeed, without taking a token.
+     */
+    boolean hasToken(long now) {
+        refill(now);
+        return tokens >= 1;
+    }
+
+    /**
+     * Returns how long until a token is available, 0 if one is.
+     */
+    long delayUntilToken(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerMs);
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerMs);
+            refilledAt = now;
+        }
+    }
+}
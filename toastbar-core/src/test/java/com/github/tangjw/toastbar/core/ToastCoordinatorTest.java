@@ -0,0 +1,148 @@
+package com.github.tangjw.toastbar.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ToastCoordinatorTest {
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final ToastCoordinator coordinator = new ToastCoordinator(scheduler, scheduler);
+
+    @Test
+    public void earlierTimeoutSchedulesAheadWithoutCancelling() {
+        RecordingCallback toast = new RecordingCallback();
+        coordinator.show(10_000, 0, null, toast);
+        coordinator.onShown(toast);
+        assertEquals(1, scheduler.pending());
+
+        // Shortening the current toast needs the timer earlier than it is armed for
+        coordinator.show(500, 0, null, toast);
+        assertEquals(2, scheduler.pending());
+
+        scheduler.advanceTo(500);
+        assertEquals(1, toast.dismissals.size());
+        assertEquals(ToastCoordinator.DISMISS_EVENT_TIMEOUT, (int) toast.dismissals.get(0));
+        coordinator.onDismissed(toast);
+
+        // The stale run fires for nothing and does not re-arm
+        scheduler.advanceTo(10_000);
+        assertEquals(1, toast.dismissals.size());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void laterTimeoutKeepsTheArmedRun() {
+        RecordingCallback toast = new RecordingCallback();
+        coordinator.show(500, 0, null, toast);
+        coordinator.onShown(toast);
+        coordinator.show(10_000, 0, null, toast);
+        assertEquals(1, scheduler.pending());
+
+        // The armed run finds nothing due and re-arms for the new deadline
+        scheduler.advanceTo(500);
+        assertTrue(toast.dismissals.isEmpty());
+        assertEquals(1, scheduler.pending());
+
+        scheduler.advanceTo(10_000);
+        assertEquals(1, toast.dismissals.size());
+    }
+
+    @Test
+    public void liftingRateLimitReleasesDeferredToastWithoutCancelling() {
+        coordinator.setRateLimit(1, 1, ToastCoordinator.RATE_LIMIT_DEFER);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        coordinator.show(ToastCoordinator.LENGTH_INDEFINITE, 0, null, first);
+        coordinator.onShown(first);
+        coordinator.show(ToastCoordinator.LENGTH_INDEFINITE, 0, null, second);
+        assertEquals(1, scheduler.pending());
+
+        coordinator.setRateLimit(0, 0, ToastCoordinator.RATE_LIMIT_DEFER);
+        assertEquals(1, first.dismissals.size());
+        assertEquals(ToastCoordinator.DISMISS_EVENT_CONSECUTIVE, (int) first.dismissals.get(0));
+        coordinator.onDismissed(first);
+        assertEquals(1, second.shows);
+
+        scheduler.advanceTo(10_000);
+        assertEquals(1, second.shows);
+        assertTrue(second.dismissals.isEmpty());
+    }
+
+    private static final class RecordingCallback implements ToastCoordinator.Callback {
+        int shows;
+        final List<Integer> dismissals = new ArrayList<>();
+
+        @Override
+        public void show() {
+            shows++;
+        }
+
+        @Override
+        public void dismiss(int event) {
+            dismissals.add(event);
+        }
+
+        @Override
+        public void repeat(int count) {
+        }
+    }
+
+    /**
+     * Runs scheduled tasks in time order as the test advances the clock, on the test thread. Fails
+     * on {@link #cancel}, which on Android scans the main thread's whole queue.
+     */
+    private static final class ManualScheduler implements Scheduler, Clock {
+        private final List<Long> times = new ArrayList<>();
+        private final List<Runnable> tasks = new ArrayList<>();
+        private long now;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public boolean isOwnerThread() {
+            return true;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            schedule(task, 0);
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            // After tasks due at the same time, like a Handler
+            long time = now + delayMs;
+            int index = 0;
+            while (index < times.size() && times.get(index) <= time) {
+                index++;
+            }
+            times.add(index, time);
+            tasks.add(index, task);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            throw new AssertionError("Cancelled a task");
+        }
+
+        int pending() {
+            return tasks.size();
+        }
+
+        void advanceTo(long time) {
+            while (!times.isEmpty() && times.get(0) <= time) {
+                now = times.remove(0);
+                tasks.remove(0).run();
+            }
+            now = time;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.tangjw.toastbar.core;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ToastQueueTest {
+
+    private static final ToastCoordinator.Callback CALLBACK = new ToastCoordinator.Callback() {
+        @Override
+        public void show() {
+        }
+
+        @Override
+        public void dismiss(int event) {
+        }
+
+        @Override
+        public void repeat(int count) {
+        }
+    };
+
+    private final ToastQueue queue = new ToastQueue();
+
+    private ToastRecord offer(int priority) {
+        ToastRecord record = new ToastRecord(0, priority, null, CALLBACK, 0);
+        queue.offer(record);
+        return record;
+    }
+
+    @Test
+    public void lowestOfEmptyQueueIsNull() {
+        assertNull(queue.lowest());
+    }
+
+    @Test
+    public void lowestOfEqualPrioritiesIsTheOneShownLast() {
+        ToastRecord first = offer(0);
+        offer(0);
+        ToastRecord last = offer(0);
+
+        assertSame(last, queue.lowest());
+        assertSame(first, queue.oldest());
+    }
+
+    @Test
+    public void lowestMatchesPollOrder() {
+        offer(1);
+        offer(0);
+        offer(2);
+        offer(0);
+        offer(1);
+        offer(0);
+        offer(2);
+
+        ToastRecord lowest = queue.lowest();
+        ToastRecord polled = null;
+        while (!queue.isEmpty()) {
+            polled = queue.poll();
+        }
+        assertSame(polled, lowest);
+    }
+}
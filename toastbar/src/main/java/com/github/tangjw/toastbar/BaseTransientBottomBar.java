@@ -1,15 +1,12 @@
 package com.github.tangjw.toastbar;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
 import android.animation.TimeInterpolator;
-import android.animation.ValueAnimator;
-import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.Context;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.view.Gravity;
 import android.view.View;
@@ -28,6 +25,8 @@ import androidx.annotation.Nullable;
 import androidx.core.view.ViewCompat;
 import androidx.interpolator.view.animation.LinearOutSlowInInterpolator;
 
+import com.github.tangjw.toastbar.core.ToastMetrics;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
@@ -112,6 +111,29 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
 
     public static final int LENGTH_LONG = 0;
 
+    /**
+     * Annotation for the priorities deciding which queued toast is shown next.
+     */
+    @IntDef({PRIORITY_INFO, PRIORITY_SUCCESS, PRIORITY_ERROR})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {
+    }
+
+    /**
+     * Priority of informational toasts. This is the default.
+     */
+    public static final int PRIORITY_INFO = 0;
+
+    /**
+     * Priority of toasts confirming a successful operation.
+     */
+    public static final int PRIORITY_SUCCESS = 1;
+
+    /**
+     * Priority of error toasts. These are shown before any other queued toast.
+     */
+    public static final int PRIORITY_ERROR = 2;
+
     // Legacy slide animation duration constant.
     static final int ANIMATION_DURATION = 250;
     // Legacy slide animation content fade duration constant.
@@ -122,10 +144,20 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
     private static final int ANIMATION_FADE_OUT_DURATION = 75;
     private static final float ANIMATION_SCALE_FROM_VALUE = 0.8f;
 
+    private static final ToastbarAnimator.Spec FADE_IN_SPEC =
+            new ToastbarAnimator.Spec(ANIMATION_FADE_IN_DURATION,
+                    0f, 1f, LINEAR_INTERPOLATOR,
+                    ANIMATION_SCALE_FROM_VALUE, 1f, LINEAR_OUT_SLOW_IN_INTERPOLATOR);
+    private static final ToastbarAnimator.Spec FADE_OUT_SPEC =
+            new ToastbarAnimator.Spec(ANIMATION_FADE_OUT_DURATION,
+                    ToastbarAnimator.FROM_CURRENT, 0f, LINEAR_INTERPOLATOR,
+                    1f, 1f, null);
+
     @NonNull
     static final Handler handler;
     static final int MSG_SHOW = 0;
     static final int MSG_DISMISS = 1;
+    static final int MSG_REPEAT = 2;
 
     private static final String TAG = BaseTransientBottomBar.class.getSimpleName();
 
@@ -141,6 +173,9 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
                                 case MSG_DISMISS:
                                     ((BaseTransientBottomBar) message.obj).hideView(message.arg1);
                                     return true;
+                                case MSG_REPEAT:
+                                    ((BaseTransientBottomBar) message.obj).onRepeat(message.arg1);
+                                    return true;
                                 default:
                                     return false;
                             }
@@ -152,38 +187,86 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
     private final Context context;
 
     @NonNull
-    protected final ToastBaseLayout view;
+    protected ToastBaseLayout view;
 
     private int duration;
 
+    @Priority
+    private int priority = PRIORITY_INFO;
+
     private boolean pendingShowingView;
 
+    private final boolean enableMask;
+
+    /**
+     * Whether {@link #view} has been handed back to {@link ToastbarPool} and may already be in use
+     * by another toast.
+     */
+    private boolean recycled;
+
     private List<BaseCallback<B>> callbacks;
 
+    @NonNull
+    private final ToastbarAnimator.Transition transition =
+            new ToastbarAnimator.Transition(
+                    new ToastbarAnimator.Listener() {
+                        @Override
+                        public void onTransitionEnd(@NonNull ToastbarAnimator.Spec spec) {
+                            recordTransitionEnd(spec);
+                            reportFrameTiming(spec);
+                            if (spec == FADE_IN_SPEC) {
+                                onViewShown();
+                            } else {
+                                onViewHidden(pendingDismissEvent);
+                            }
+                        }
+                    });
+
+    private int pendingDismissEvent;
+
+    // Start times for ToastbarManager#getMetrics(), NOT_TIMED while nothing is timed
+    private static final long NOT_TIMED = -1;
+    private long showRequestedAtMs = NOT_TIMED;
+    private long transitionStartedAtMs = NOT_TIMED;
+
     protected BaseTransientBottomBar(
             @NonNull Context context,
             @NonNull ViewGroup parent,
             @NonNull View content, boolean enableMask) {
+        this(context, parent, new ToastBaseLayout(context), enableMask);
+        view.addView(content);
+    }
+
+    /**
+     * Creates a bar around an already populated, possibly recycled, {@link ToastBaseLayout}.
+     */
+    BaseTransientBottomBar(
+            @NonNull Context context,
+            @NonNull ViewGroup parent,
+            @NonNull ToastBaseLayout view, boolean enableMask) {
 
         targetParent = parent;
         this.context = context;
+        this.view = view;
+        this.enableMask = enableMask;
+        setUpView(enableMask);
+    }
 
-        view = new ToastBaseLayout(context);
+    private void setUpView(boolean enableMask) {
         FrameLayout.LayoutParams layoutParams;
         if (enableMask) {
             layoutParams = new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
-            view.setBackgroundColor(Color.parseColor("#33000000"));
+            view.setScrimColor(ToastbarStyle.getDefault().getMaskColor());
         } else {
             layoutParams = new FrameLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
             layoutParams.gravity = Gravity.CENTER;
-            view.setBackgroundColor(Color.TRANSPARENT);
+            view.setScrimColor(Color.TRANSPARENT);
         }
 
 
         view.setLayoutParams(layoutParams);
      //  view.setGravity(Gravity.CENTER);
         view.setBaseTransientBottomBar(this);
-        view.addView(content);
     }
 
     @NonNull
@@ -202,6 +285,27 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
         return duration;
     }
 
+    /**
+     * Sets the priority used to order this bar against other queued bars. A bar only replaces the
+     * one currently shown if its priority is at least as high, otherwise it waits for it to time
+     * out.
+     */
+    @NonNull
+    public B setPriority(@Priority int priority) {
+        this.priority = priority;
+        return (B) this;
+    }
+
+    /**
+     * Return the priority.
+     *
+     * @see #setPriority
+     */
+    @Priority
+    public int getPriority() {
+        return priority;
+    }
+
     /**
      * Returns the {@link BaseTransientBottomBar}'s context.
      */
@@ -219,7 +323,35 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
     }
 
     public void show() {
-        ToastbarManager.getInstance().show(getDuration(), managerCallback);
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // Our window is resolved from the view tree, which only the main thread may read
+            handler.post(this::show);
+            return;
+        }
+        if (recycled) {
+            // Our previous hierarchy went back to the pool when we were hidden, take a new one
+            recycled = false;
+            view = onRecreateView();
+            setUpView(isMaskEnabled());
+            onViewRecreated();
+        }
+        if (showRequestedAtMs == NOT_TIMED) {
+            showRequestedAtMs = SystemClock.uptimeMillis();
+        }
+        ToastbarManager manager = ToastbarManager.getInstance();
+        if (windowKey == null || !manager.isCurrentOrNext(managerCallback)) {
+            Object key = ToastbarManager.getWindowKey(targetParent);
+            if (key == null) {
+                // Queued in the window of our parent once it has one
+                if (!waitingForAttach) {
+                    waitingForAttach = true;
+                    targetParent.addOnAttachStateChangeListener(showOnAttach);
+                }
+                return;
+            }
+            windowKey = key;
+        }
+        manager.show(getDuration(), getPriority(), getContentKey(), managerCallback);
     }
 
     public void dismiss() {
@@ -227,9 +359,37 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
     }
 
     protected void dispatchDismiss(@BaseCallback.DismissEvent int event) {
+        if (waitingForAttach) {
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                handler.post(() -> dispatchDismiss(event));
+                return;
+            }
+            // Never queued, so there is nothing to tell
+            stopWaitingForAttach();
+            return;
+        }
         ToastbarManager.getInstance().dismiss(managerCallback, event);
     }
 
+    private void stopWaitingForAttach() {
+        waitingForAttach = false;
+        targetParent.removeOnAttachStateChangeListener(showOnAttach);
+    }
+
+    @NonNull
+    private final View.OnAttachStateChangeListener showOnAttach =
+            new View.OnAttachStateChangeListener() {
+                @Override
+                public void onViewAttachedToWindow(@NonNull View v) {
+                    stopWaitingForAttach();
+                    show();
+                }
+
+                @Override
+                public void onViewDetachedFromWindow(@NonNull View v) {
+                }
+            };
+
     /**
      * Adds the specified callback to the list of callbacks that will be notified of transient bottom
      * bar events.
@@ -281,7 +441,7 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
      * be shown next.
      */
     public boolean isShownOrQueued() {
-        return ToastbarManager.getInstance().isCurrentOrNext(managerCallback);
+        return waitingForAttach || ToastbarManager.getInstance().isCurrentOrNext(managerCallback);
     }
 
     @NonNull
@@ -297,10 +457,32 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
                     handler.sendMessage(
                             handler.obtainMessage(MSG_DISMISS, event, 0, BaseTransientBottomBar.this));
                 }
+
+                @Override
+                public void repeat(int count) {
+                    handler.sendMessage(
+                            handler.obtainMessage(MSG_REPEAT, count, 0, BaseTransientBottomBar.this));
+                }
+
+                @Nullable
+                @Override
+                public Object getWindowKey() {
+                    return windowKey;
+                }
             };
 
+    /**
+     * The key of the window we are queued in, resolved on the main thread whenever we are shown
+     * while not queued, so all our calls to {@link ToastbarManager} reach the same queue.
+     */
+    @Nullable
+    private volatile Object windowKey;
+    // Shown before our parent was attached; only written on the main thread
+    private volatile boolean waitingForAttach;
+
     final void showView() {
         if (this.view.getParent() == null) {
+            onBeforeShowView();
             LayoutParams lp = this.view.getLayoutParams();
             this.view.addToTargetParent(targetParent);
             recalculateAndUpdateMargins();
@@ -389,61 +571,47 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
     }
 
     private void startFadeInAnimation() {
-        ValueAnimator alphaAnimator = getAlphaAnimator(0, 1);
-        ValueAnimator scaleAnimator = getScaleAnimator(ANIMATION_SCALE_FROM_VALUE, 1);
-
-        AnimatorSet animatorSet = new AnimatorSet();
-        animatorSet.playTogether(alphaAnimator, scaleAnimator);
-        animatorSet.setDuration(ANIMATION_FADE_IN_DURATION);
-        animatorSet.addListener(
-                new AnimatorListenerAdapter() {
-                    @Override
-                    public void onAnimationEnd(Animator animator) {
-                        onViewShown();
-                    }
-                });
-        animatorSet.start();
+        ToastbarAnimator.getInstance().start(transition, view.getContentView(), getScrim(), FADE_IN_SPEC);
+        // After starting: a replaced transition is recorded against its own start time
+        transitionStartedAtMs = SystemClock.uptimeMillis();
     }
 
     private void startFadeOutAnimation(final int event) {
-        ValueAnimator animator = getAlphaAnimator(1, 0);
-        animator.setDuration(ANIMATION_FADE_OUT_DURATION);
-        animator.addListener(
-                new AnimatorListenerAdapter() {
-                    @Override
-                    public void onAnimationEnd(Animator animator) {
-                        onViewHidden(event);
-                    }
-                });
-        animator.start();
-    }
-
-    private ValueAnimator getAlphaAnimator(float... alphaValues) {
-        ValueAnimator animator = ValueAnimator.ofFloat(alphaValues);
-        animator.setInterpolator(LINEAR_INTERPOLATOR);
-        animator.addUpdateListener(
-                new AnimatorUpdateListener() {
-                    @Override
-                    public void onAnimationUpdate(@NonNull ValueAnimator valueAnimator) {
-                        view.setAlpha((Float) valueAnimator.getAnimatedValue());
-                    }
-                });
-        return animator;
-    }
-
-    private ValueAnimator getScaleAnimator(float... scaleValues) {
-        ValueAnimator animator = ValueAnimator.ofFloat(scaleValues);
-        animator.setInterpolator(LINEAR_OUT_SLOW_IN_INTERPOLATOR);
-        animator.addUpdateListener(
-                new AnimatorUpdateListener() {
-                    @Override
-                    public void onAnimationUpdate(@NonNull ValueAnimator valueAnimator) {
-                        float scale = (float) valueAnimator.getAnimatedValue();
-                        view.setScaleX(scale);
-                        view.setScaleY(scale);
-                    }
-                });
-        return animator;
+        pendingDismissEvent = event;
+        ToastbarAnimator.getInstance().start(transition, view.getContentView(), getScrim(), FADE_OUT_SPEC);
+        transitionStartedAtMs = SystemClock.uptimeMillis();
+    }
+
+    private void reportFrameTiming(@NonNull ToastbarAnimator.Spec spec) {
+        ToastbarFrameTiming.Listener listener = ToastbarAnimator.getInstance().getFrameTimingListener();
+        ToastbarAnimator.FrameRecorder frames = transition.getFrames();
+        if (listener != null && frames != null) {
+            listener.onFrameTiming(
+                    new ToastbarFrameTiming(getContentType(), isMaskEnabled(), spec == FADE_IN_SPEC, frames));
+        }
+    }
+
+    private void recordTransitionEnd(@NonNull ToastbarAnimator.Spec spec) {
+        if (transitionStartedAtMs == NOT_TIMED) {
+            return;
+        }
+        long durationMs = SystemClock.uptimeMillis() - transitionStartedAtMs;
+        transitionStartedAtMs = NOT_TIMED;
+        ToastMetrics metrics = ToastbarManager.getInstance().getMetrics();
+        if (spec == FADE_IN_SPEC) {
+            metrics.recordEnterAnimation(durationMs);
+        } else {
+            metrics.recordExitAnimation(durationMs);
+        }
+    }
+
+    /**
+     * Returns the drawable dimming the screen behind a masked bar, animated separately from the
+     * content.
+     */
+    @Nullable
+    private Drawable getScrim() {
+        return isMaskEnabled() ? view.getBackground() : null;
     }
 
     private int getTranslationYBottom() {
@@ -465,6 +633,11 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
     }
 
     void onViewShown() {
+        if (showRequestedAtMs != NOT_TIMED) {
+            ToastbarManager.getInstance().getMetrics()
+                    .recordShowLatency(SystemClock.uptimeMillis() - showRequestedAtMs);
+            showRequestedAtMs = NOT_TIMED;
+        }
         ToastbarManager.getInstance().onShown(managerCallback);
         if (callbacks != null) {
             // Notify the callbacks. Do that from the end of the list so that if a callback
@@ -477,6 +650,10 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
     }
 
     void onViewHidden(int event) {
+        // Whatever is still animating must not touch the view once it may be recycled
+        ToastbarAnimator.getInstance().cancel(transition);
+        transitionStartedAtMs = NOT_TIMED;
+        showRequestedAtMs = NOT_TIMED;
         // First tell the SnackbarManager that it has been dismissed
         ToastbarManager.getInstance().onDismissed(managerCallback);
         if (callbacks != null) {
@@ -488,10 +665,12 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
             }
         }
 
-        // Lastly, hide and remove the view from the parent (if attached)
-        ViewParent parent = view.getParent();
-        if (parent instanceof ViewGroup) {
-            ((ViewGroup) parent).removeView(view);
+        // Lastly, hide and remove the view from the parent or its own window (if attached)
+        view.removeFromParent();
+
+        // And offer the detached hierarchy to the next toast shown in this window
+        if (!recycled && !isShownOrQueued()) {
+            recycled = ToastbarPool.get(targetParent).release(getContentType(), view);
         }
     }
 
@@ -499,4 +678,67 @@ public abstract class BaseTransientBottomBar<B extends BaseTransientBottomBar<B>
         return true;
     }
 
+    /**
+     * Returns whether {@link #view} was given back to {@link ToastbarPool} after this bar was
+     * hidden. Work posted to the view before that must not touch it any more.
+     */
+    boolean isRecycled() {
+        return recycled;
+    }
+
+    /**
+     * Returns the {@link ToastbarPool.ContentType} {@link #view} currently represents, or {@link
+     * ToastbarPool#TYPE_NONE} if it must not be recycled.
+     */
+    @ToastbarPool.ContentType
+    int getContentType() {
+        return ToastbarPool.TYPE_NONE;
+    }
+
+    /**
+     * Returns a key identifying the content of this bar, so that equal bars can be merged by {@link
+     * ToastbarManager#setCoalescingWindow(long)}, or {@code null} if it must never be merged.
+     */
+    @Nullable
+    Object getContentKey() {
+        return null;
+    }
+
+    /**
+     * Called on the main thread when an equal bar was merged into this one.
+     *
+     * @param count how many times this bar has been shown, including the first time.
+     */
+    void onRepeat(int count) {
+    }
+
+    /**
+     * Returns whether {@link #view} is laid out as a full screen mask.
+     */
+    boolean isMaskEnabled() {
+        return enableMask;
+    }
+
+    /**
+     * Builds a new view hierarchy for a bar that is shown again after its previous one was
+     * recycled. Only called for bars that report a {@link #getContentType() content type}.
+     */
+    @NonNull
+    ToastBaseLayout onRecreateView() {
+        throw new IllegalStateException("Bars without a content type are never recycled");
+    }
+
+    /**
+     * Called after {@link #onRecreateView()} so subclasses can re-apply their content state.
+     */
+    void onViewRecreated() {
+    }
+
+    /**
+     * Called when this bar reaches the front of the queue, right before {@link #view} is added to
+     * its parent.
+     */
+    void onBeforeShowView() {
+    }
+
 }
@@ -8,9 +8,12 @@ import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.util.AttributeSet;
+import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.widget.FrameLayout;
 
+import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.graphics.drawable.DrawableCompat;
@@ -30,6 +33,24 @@ class ToastBaseLayout extends FrameLayout {
     private ColorStateList backgroundTint;
     private PorterDuff.Mode backgroundTintMode;
 
+    /**
+     * Whether to show in the panel over the window rather than inside the target parent.
+     */
+    private boolean hostInWindow;
+    @Nullable
+    private ToastWindowHost windowHost;
+    @ColorInt
+    private int scrimColor = Color.TRANSPARENT;
+    @NonNull
+    private final ToastbarScrimDrawable scrim = new ToastbarScrimDrawable();
+
+    // The specs of the last measure pass, to measure the subtree again without the parent
+    private int lastWidthMeasureSpec;
+    private int lastHeightMeasureSpec;
+    private boolean updatingLayoutParams;
+    private boolean layoutInPlacePending;
+    private final Runnable layoutInPlace = this::layoutInPlace;
+
     protected ToastBaseLayout(@NonNull Context context) {
         this(context, null);
     }
@@ -89,12 +110,92 @@ class ToastBaseLayout extends FrameLayout {
         }
     }
 
+    /**
+     * Returns the content card, which is what enter and exit transitions animate.
+     */
+    @NonNull
+    View getContentView() {
+        return getChildCount() > 0 ? getChildAt(0) : this;
+    }
+
+    @Override
+    public boolean hasOverlappingRendering() {
+        // Without a visible scrim only the content card is drawn, so an alpha set on us can be
+        // applied to it directly
+        return getChildCount() > 1 || (getChildCount() > 0 && hasVisibleBackground());
+    }
+
+    private boolean hasVisibleBackground() {
+        Drawable background = getBackground();
+        if (background == null) {
+            return false;
+        }
+        if (background instanceof ToastbarScrimDrawable) {
+            return Color.alpha(((ToastbarScrimDrawable) background).getColor()) != 0;
+        }
+        return true;
+    }
+
     @Override
     public void setOnClickListener(@Nullable OnClickListener onClickListener) {
         setOnTouchListener(onClickListener != null ? null : consumeAllTouchListener);
         super.setOnClickListener(onClickListener);
     }
 
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        lastWidthMeasureSpec = widthMeasureSpec;
+        lastHeightMeasureSpec = heightMeasureSpec;
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    }
+
+    /**
+     * Keeps layout requests of the content, e.g. from {@link Toastbar#setText}, inside this layout.
+     * The subtree is measured and laid out again on the next frame with the specs of the last pass,
+     * and the request only goes on to the parent if that changes our size.
+     */
+    @Override
+    public void requestLayout() {
+        if (!canLayoutInPlace()) {
+            super.requestLayout();
+            return;
+        }
+        // Flags us without telling the parent; further requests of the children stop here
+        forceLayout();
+        if (!layoutInPlacePending) {
+            layoutInPlacePending = true;
+            ViewCompat.postOnAnimation(this, layoutInPlace);
+        }
+    }
+
+    private boolean canLayoutInPlace() {
+        // Runs from the super constructor too, before the fields are set
+        if (layoutInPlace == null || updatingLayoutParams || isInLayout()) {
+            return false;
+        }
+        ViewParent parent = getParent();
+        return parent != null && !parent.isLayoutRequested()
+                && ViewCompat.isAttachedToWindow(this) && ViewCompat.isLaidOut(this);
+    }
+
+    private void layoutInPlace() {
+        layoutInPlacePending = false;
+        ViewParent parent = getParent();
+        if (!isLayoutRequested() || parent == null || parent.isLayoutRequested()
+                || !ViewCompat.isLaidOut(this)) {
+            // A pass of the parent has done it or is about to
+            return;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        measure(lastWidthMeasureSpec, lastHeightMeasureSpec);
+        if (getMeasuredWidth() != width || getMeasuredHeight() != height) {
+            super.requestLayout();
+            return;
+        }
+        layout(getLeft(), getTop(), getRight(), getBottom());
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         super.onLayout(changed, l, t, r, b);
@@ -115,19 +216,107 @@ class ToastBaseLayout extends FrameLayout {
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        removeCallbacks(layoutInPlace);
+        layoutInPlacePending = false;
         if (baseTransientBottomBar != null) {
             baseTransientBottomBar.onDetachedFromWindow();
         }
     }
 
+    @Override
+    public void setLayoutParams(ViewGroup.LayoutParams params) {
+        // New params may move or resize us, so these requests always reach the parent
+        updatingLayoutParams = true;
+        try {
+            super.setLayoutParams(params);
+        } finally {
+            updatingLayoutParams = false;
+        }
+        if (windowHost != null) {
+            windowHost.syncWindowLayout();
+        }
+    }
+
+    /**
+     * Sets the color of the scrim dimming what is behind a masked toast, transparent for none.
+     */
+    void setScrimColor(@ColorInt int color) {
+        scrimColor = color;
+        updateScrim();
+    }
+
+    @ColorInt
+    int getScrimColor() {
+        return scrimColor;
+    }
+
+    /**
+     * Draws the scrim as our background, recorded once; see {@link ToastbarScrimDrawable}.
+     */
+    private void updateScrim() {
+        scrim.setColor(scrimColor);
+        setBackground(Color.alpha(scrimColor) != 0 ? scrim : null);
+    }
+
+    void setHostInWindow(boolean hostInWindow) {
+        this.hostInWindow = hostInWindow;
+    }
+
     void addToTargetParent(ViewGroup targetParent) {
+        if (hostInWindow) {
+            ToastWindowHost host = ToastbarPool.get(targetParent).obtainWindowHost(targetParent);
+            if (host.show(this)) {
+                windowHost = host;
+                return;
+            }
+            // Not attached to a window yet, there is nothing to put a panel on
+        }
         targetParent.addView(this);
     }
 
+    /**
+     * Removes this layout from the target parent or from the window's panel, whichever it was added
+     * to. The panel stays with the window for the next toast.
+     */
+    void removeFromParent() {
+        if (windowHost != null) {
+            ToastWindowHost host = windowHost;
+            windowHost = null;
+            host.hide(this);
+            return;
+        }
+        ViewParent parent = getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(this);
+        }
+    }
+
     void setBaseTransientBottomBar(BaseTransientBottomBar<?> baseTransientBottomBar) {
         this.baseTransientBottomBar = baseTransientBottomBar;
     }
 
+    /**
+     * Resets the state left behind by the previous toast before this layout goes into {@link
+     * ToastbarPool}.
+     */
+    void recycle() {
+        baseTransientBottomBar = null;
+        hostInWindow = false;
+        setAlpha(1f);
+        setScaleX(1f);
+        setScaleY(1f);
+        View content = getContentView();
+        content.setAlpha(1f);
+        content.setScaleX(1f);
+        content.setScaleY(1f);
+        if (getBackground() != null) {
+            getBackground().setAlpha(255);
+        }
+        if (content instanceof ToastContent) {
+            ((ToastContent) content).recycle();
+        }
+    }
+
     private Drawable createThemedBackground() {
         float cornerRadius = 32f;
 
@@ -0,0 +1,61 @@
+package com.github.tangjw.toastbar;
+
+import android.graphics.drawable.Drawable;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The content card of a {@link Toastbar}: a rounded background holding an icon or spinner above
+ * the message text. Implemented by the {@link ToastContentLayout} view hierarchy and by the flat,
+ * single view {@link ToastContentView}.
+ */
+interface ToastContent {
+
+    /**
+     * Returns the view to add to the {@link ToastBaseLayout}.
+     */
+    @NonNull
+    View asView();
+
+    /**
+     * Returns the style this card was built with.
+     */
+    @NonNull
+    ToastbarStyle.Resolved getStyle();
+
+    /**
+     * Applies the full content state, resetting anything a previous owner of this (possibly
+     * recycled) content may have changed.
+     *
+     * @param iconDrawable the icon to show in place of the spinner, or {@code null} for the spinner.
+     */
+    void bind(@NonNull CharSequence text, int gravity, int maxLines, boolean iconVisible,
+              @Nullable Drawable iconDrawable);
+
+    void setMessage(@Nullable CharSequence text);
+
+    void setMessageGravity(int gravity);
+
+    void setIconVisible(boolean visible);
+
+    boolean isIconVisible();
+
+    /**
+     * Shows {@code iconDrawable} in place of the spinner, at the spinner's size.
+     */
+    void setIcon(@NonNull Drawable iconDrawable);
+
+    /**
+     * Swaps in the message as measured in the background since it was set, if that finished
+     * already. Called right before the card is added to the window, so the first layout pass does
+     * not need to measure the text again.
+     */
+    void applyPrecomputedText();
+
+    /**
+     * Drops references to caller supplied content before the card is parked in the pool.
+     */
+    void recycle();
+}
@@ -0,0 +1,45 @@
+package com.github.tangjw.toastbar;
+
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Identifies what a toast shows, so that {@link ToastbarManager} can merge a toast into an equal
+ * one that is already shown or queued instead of showing it again.
+ */
+final class ToastContentKey {
+
+    @NonNull
+    private final String text;
+    @Nullable
+    private final Object icon;
+    private final int status;
+
+    ToastContentKey(@NonNull CharSequence text, @Nullable Drawable icon, int status) {
+        this.text = text.toString();
+        // Drawables inflated from the same resource share their constant state
+        this.icon = icon == null || icon.getConstantState() == null ? icon : icon.getConstantState();
+        this.status = status;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ToastContentKey)) {
+            return false;
+        }
+        ToastContentKey other = (ToastContentKey) o;
+        return status == other.status && icon == other.icon && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = text.hashCode();
+        result = 31 * result + (icon != null ? System.identityHashCode(icon) : 0);
+        return 31 * result + status;
+    }
+}
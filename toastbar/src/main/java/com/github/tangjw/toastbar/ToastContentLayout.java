@@ -0,0 +1,181 @@
+package com.github.tangjw.toastbar;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+/**
+ * The {@link ToastContent} built from framework widgets: a {@link ProgressBar} for the icon or
+ * spinner above a {@link TextView}. Instances are recycled through {@link ToastbarPool}, so
+ * everything a toast may change is restored by {@link #bind}.
+ */
+class ToastContentLayout extends LinearLayout implements ToastContent {
+
+    @NonNull
+    final ProgressBar progressBar;
+    @NonNull
+    final TextView textView;
+    @NonNull
+    private final ToastbarStyle.Resolved style;
+    @NonNull
+    private final Drawable defaultIndeterminateDrawable;
+    @Nullable
+    private PrecomputedTextCompat.Params textMetricsParams;
+
+    ToastContentLayout(@NonNull Context context, @NonNull ToastbarStyle.Resolved style) {
+        super(context);
+        this.style = style;
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.gravity = Gravity.CENTER;
+        setLayoutParams(params);
+        setOrientation(LinearLayout.VERTICAL);
+
+        progressBar = new ProgressBar(context);
+        progressBar.setId(View.generateViewId());
+        LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(style.iconWidth, style.iconHeight);
+        progressBar.setPadding(0, style.iconPaddingTop, 0, 0);
+        progressBar.setVisibility(View.GONE);
+        progressBar.setLayoutParams(layoutParams);
+        progressBar.setIndeterminateTintList(style.iconTint);
+        defaultIndeterminateDrawable = progressBar.getIndeterminateDrawable();
+        addView(progressBar, 0);
+
+        textView = new TextView(context);
+        textView.setLayoutParams(new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        textView.setEllipsize(TextUtils.TruncateAt.END);
+        textView.setIncludeFontPadding(false);
+        textView.setTextSize(TypedValue.COMPLEX_UNIT_PX, style.textSize);
+        textView.setTextColor(style.textColor);
+        textView.setMinHeight(style.textMinHeight);
+        textView.setPadding(style.textPaddingHorizontal, 0, style.textPaddingHorizontal, 0);
+        addView(textView, 1);
+
+        setBackground(style.newBackground());
+    }
+
+    @NonNull
+    @Override
+    public View asView() {
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public ToastbarStyle.Resolved getStyle() {
+        return style;
+    }
+
+    @Override
+    public void bind(@NonNull CharSequence text, int gravity, int maxLines, boolean iconVisible,
+                     @Nullable Drawable iconDrawable) {
+        Drawable indeterminate = iconDrawable != null ? iconDrawable : defaultIndeterminateDrawable;
+        if (progressBar.getIndeterminateDrawable() != indeterminate) {
+            progressBar.setIndeterminateDrawable(indeterminate);
+        }
+        progressBar.setVisibility(iconVisible ? View.VISIBLE : View.GONE);
+        textView.setMaxLines(maxLines);
+        textView.setGravity(gravity);
+        setText(text);
+    }
+
+    @Override
+    public void setMessage(@Nullable CharSequence text) {
+        setText(text);
+    }
+
+    @Override
+    public void setMessageGravity(int gravity) {
+        textView.setGravity(gravity);
+    }
+
+    @Override
+    public void setIconVisible(boolean visible) {
+        progressBar.setVisibility(visible ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public boolean isIconVisible() {
+        return progressBar.getVisibility() == View.VISIBLE;
+    }
+
+    @Override
+    public void setIcon(@NonNull Drawable iconDrawable) {
+        Rect bounds = progressBar.getIndeterminateDrawable().getBounds();
+        progressBar.setIndeterminateDrawable(iconDrawable);
+        progressBar.getIndeterminateDrawable().setBounds(bounds);
+    }
+
+    @Override
+    public void applyPrecomputedText() {
+        CharSequence text = textView.getText();
+        // Anything but a plain string is either precomputed already or was never sent off
+        if (text instanceof String) {
+            setPrecomputedText(text);
+        }
+    }
+
+    /**
+     * Sets {@code text} as precomputed text if it was measured before, otherwise sets it as is and
+     * has it measured in the background for {@link #applyPrecomputedText()} and for next time.
+     */
+    private void setText(@Nullable CharSequence text) {
+        if (text == null || !setPrecomputedText(text)) {
+            textView.setText(text);
+            if (text != null) {
+                PrecomputedTextCompat.Params params = getTextMetricsParams();
+                ToastbarTextCache.getInstance().precompute(text, ToastbarTextCache.WIDTH_UNBOUNDED, params,
+                        (measureText, width) -> PrecomputedTextCompat.create(measureText, params));
+            }
+        }
+    }
+
+    private boolean setPrecomputedText(@NonNull CharSequence text) {
+        Object measured = ToastbarTextCache.getInstance().get(text, ToastbarTextCache.WIDTH_UNBOUNDED,
+                getTextMetricsParams());
+        if (!(measured instanceof PrecomputedTextCompat)) {
+            return false;
+        }
+        PrecomputedTextCompat precomputedText = (PrecomputedTextCompat) measured;
+        // The text direction is only resolved once attached; precomputed text must match it exactly
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+        if (!params.equals(precomputedText.getParams())) {
+            textMetricsParams = params;
+            return false;
+        }
+        TextViewCompat.setPrecomputedText(textView, precomputedText);
+        return true;
+    }
+
+    @NonNull
+    private PrecomputedTextCompat.Params getTextMetricsParams() {
+        if (textMetricsParams == null) {
+            textMetricsParams = TextViewCompat.getTextMetricsParams(textView);
+        }
+        return textMetricsParams;
+    }
+
+    @Override
+    public void recycle() {
+        textView.setText(null);
+        if (progressBar.getIndeterminateDrawable() != defaultIndeterminateDrawable) {
+            progressBar.setIndeterminateDrawable(defaultIndeterminateDrawable);
+        }
+        progressBar.setVisibility(View.GONE);
+    }
+}
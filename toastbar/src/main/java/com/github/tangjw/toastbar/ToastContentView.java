@@ -0,0 +1,452 @@
+package com.github.tangjw.toastbar;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link ToastContent} drawn by a single view: the rounded background, the icon or spinner and
+ * the message {@link StaticLayout} are all drawn directly, and measuring takes one pass instead of
+ * the two a wrap content {@link ToastContentLayout} needs for its match parent text.
+ *
+ * <p>Sizes and placement mirror {@link ToastContentLayout}: an icon box with some top padding
+ * above a message box with a minimum height and horizontal padding, all taken from the {@link
+ * ToastbarStyle}.
+ *
+ * <p>The width of the message and its {@link StaticLayout} are shared through {@link
+ * ToastbarTextCache}, and measured in the background as soon as the message is set.
+ */
+class ToastContentView extends View implements ToastContent {
+
+    // Duration of one level cycle for spinners that are not Animatable, as in ProgressBar
+    private static final int LEVEL_ANIMATION_DURATION_MS = 3500;
+    private static final int MAX_LEVEL = 10000;
+
+    @NonNull
+    private final ToastbarStyle.Resolved style;
+    @NonNull
+    private final Drawable background;
+    @NonNull
+    private final TextPaint textPaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+    @Nullable
+    private final Drawable defaultSpinner;
+
+    private final int iconWidth;
+    private final int iconHeight;
+    private final int iconPaddingTop;
+    private final int textPaddingHorizontal;
+    private final int textMinHeight;
+
+    @NonNull
+    private CharSequence text = "";
+    private int gravity = Gravity.CENTER_VERTICAL | Gravity.START;
+    private int maxLines = 2;
+    private boolean iconVisible;
+    @Nullable
+    private Drawable icon;
+
+    @NonNull
+    private TextStyle textStyle;
+    @Nullable
+    private StaticLayout textLayout;
+    private int textLayoutWidth = -1;
+    // The most the parent last let us be wide, kept across recycling; 0 until first measured
+    private int availableWidth;
+
+    ToastContentView(@NonNull Context context, @NonNull ToastbarStyle.Resolved style) {
+        super(context);
+        this.style = style;
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.gravity = Gravity.CENTER;
+        setLayoutParams(params);
+
+        iconWidth = style.iconWidth;
+        iconHeight = style.iconHeight;
+        iconPaddingTop = style.iconPaddingTop;
+        textPaddingHorizontal = style.textPaddingHorizontal;
+        textMinHeight = style.textMinHeight;
+
+        textPaint.setColor(style.textColor);
+        textPaint.setTextSize(style.textSize);
+
+        background = style.newBackground();
+
+        textStyle = new TextStyle(textPaint, maxLines, gravity);
+
+        defaultSpinner = loadDefaultSpinner(context);
+        if (defaultSpinner != null) {
+            defaultSpinner.setTintList(style.iconTint);
+        }
+    }
+
+    @NonNull
+    @Override
+    public View asView() {
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public ToastbarStyle.Resolved getStyle() {
+        return style;
+    }
+
+    @Override
+    public void bind(@NonNull CharSequence text, int gravity, int maxLines, boolean iconVisible,
+                     @Nullable Drawable iconDrawable) {
+        this.maxLines = maxLines;
+        this.gravity = gravity;
+        this.iconVisible = iconVisible;
+        setIconDrawable(iconDrawable != null ? iconDrawable : defaultSpinner);
+        updateTextStyle();
+        setMessage(text);
+        invalidateTextLayout();
+    }
+
+    @Override
+    public void setMessage(@Nullable CharSequence text) {
+        CharSequence newText = text != null ? text : "";
+        if (TextUtils.equals(this.text, newText)) {
+            return;
+        }
+        this.text = newText;
+        setContentDescription(newText);
+        invalidateTextLayout();
+        precomputeText();
+    }
+
+    @Override
+    public void setMessageGravity(int gravity) {
+        if (this.gravity != gravity) {
+            this.gravity = gravity;
+            updateTextStyle();
+            invalidateTextLayout();
+        }
+    }
+
+    @Override
+    public void setIconVisible(boolean visible) {
+        if (iconVisible != visible) {
+            iconVisible = visible;
+            updateIconAnimation();
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    @Override
+    public boolean isIconVisible() {
+        return iconVisible;
+    }
+
+    @Override
+    public void setIcon(@NonNull Drawable iconDrawable) {
+        setIconDrawable(iconDrawable);
+        invalidate();
+    }
+
+    @Override
+    public void applyPrecomputedText() {
+        // onMeasure picks up whatever the background thread has put in the cache
+    }
+
+    @Override
+    public void recycle() {
+        bind("", Gravity.CENTER_VERTICAL | Gravity.START, 2, false, null);
+    }
+
+    private void setIconDrawable(@Nullable Drawable drawable) {
+        if (icon == drawable) {
+            return;
+        }
+        if (icon != null) {
+            stopAnimation(icon);
+            icon.setCallback(null);
+        }
+        icon = drawable;
+        if (icon != null) {
+            icon.setCallback(this);
+            updateIconBounds();
+        }
+        updateIconAnimation();
+    }
+
+    private void updateTextStyle() {
+        if (textStyle.maxLines != maxLines || textStyle.alignment != getAlignment(gravity)) {
+            textStyle = new TextStyle(textPaint, maxLines, gravity);
+        }
+    }
+
+    /**
+     * Measures the message in the background the way {@link #onMeasure} would for the width the
+     * parent last offered, or for a parent as wide as the display before the first measure.
+     */
+    private void precomputeText() {
+        final TextStyle style = textStyle;
+        final TextPaint paint = new TextPaint(textPaint);
+        final int maxWidth = availableWidth > 0
+                ? availableWidth : getResources().getDisplayMetrics().widthPixels;
+        final int minWidth = iconVisible ? iconWidth : 0;
+        final int padding = 2 * textPaddingHorizontal;
+        ToastbarTextCache.getInstance().precompute(text, ToastbarTextCache.WIDTH_UNBOUNDED, style,
+                (measureText, ignored) -> {
+                    float desiredWidth = Layout.getDesiredWidth(measureText, paint);
+                    int width = Math.max(minWidth,
+                            Math.min((int) Math.ceil(desiredWidth) + padding, maxWidth));
+                    int layoutWidth = Math.max(0, width - padding);
+                    ToastbarTextCache.getInstance().put(measureText, layoutWidth, style,
+                            buildTextLayout(measureText, paint, layoutWidth, style));
+                    return desiredWidth;
+                });
+    }
+
+    private void invalidateTextLayout() {
+        textLayout = null;
+        textLayoutWidth = -1;
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+        if (widthMode == MeasureSpec.AT_MOST) {
+            availableWidth = widthSize;
+        }
+
+        ToastbarTextCache cache = ToastbarTextCache.getInstance();
+        float textWidth;
+        Object measured = cache.get(text, ToastbarTextCache.WIDTH_UNBOUNDED, textStyle);
+        if (measured instanceof Float) {
+            textWidth = (Float) measured;
+        } else {
+            textWidth = Layout.getDesiredWidth(text, textPaint);
+            cache.put(text, ToastbarTextCache.WIDTH_UNBOUNDED, textStyle, textWidth);
+        }
+
+        int desiredWidth = (int) Math.ceil(textWidth) + 2 * textPaddingHorizontal;
+        int width = widthMode == MeasureSpec.UNSPECIFIED ? desiredWidth : Math.min(desiredWidth, widthSize);
+        if (iconVisible) {
+            width = Math.max(width, iconWidth);
+        }
+        if (widthMode == MeasureSpec.EXACTLY) {
+            width = widthSize;
+        }
+
+        int layoutWidth = Math.max(0, width - 2 * textPaddingHorizontal);
+        if (textLayout == null || textLayoutWidth != layoutWidth) {
+            measured = cache.get(text, layoutWidth, textStyle);
+            if (measured instanceof StaticLayout) {
+                textLayout = (StaticLayout) measured;
+            } else {
+                textLayout = buildTextLayout(text, textPaint, layoutWidth, textStyle);
+                cache.put(text, layoutWidth, textStyle, textLayout);
+            }
+            textLayoutWidth = layoutWidth;
+        }
+
+        int height = Math.max(textMinHeight, textLayout.getHeight());
+        if (iconVisible) {
+            height += iconHeight;
+        }
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    /**
+     * Builds the message layout. Called on the text cache's thread too, so it must only use its
+     * arguments.
+     */
+    @NonNull
+    private static StaticLayout buildTextLayout(@NonNull CharSequence text, @NonNull TextPaint paint,
+                                                int width, @NonNull TextStyle style) {
+        return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width)
+                .setAlignment(style.alignment)
+                .setIncludePad(false)
+                .setMaxLines(style.maxLines)
+                .setEllipsize(TextUtils.TruncateAt.END)
+                .build();
+    }
+
+    @NonNull
+    private static Layout.Alignment getAlignment(int gravity) {
+        int horizontalGravity = gravity & Gravity.HORIZONTAL_GRAVITY_MASK;
+        return horizontalGravity == Gravity.CENTER_HORIZONTAL
+                ? Layout.Alignment.ALIGN_CENTER
+                : horizontalGravity == Gravity.END || horizontalGravity == Gravity.RIGHT
+                ? Layout.Alignment.ALIGN_OPPOSITE
+                : Layout.Alignment.ALIGN_NORMAL;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        background.setBounds(0, 0, w, h);
+        updateIconBounds();
+    }
+
+    /**
+     * Fits the icon into the icon box below its top padding, keeping its aspect ratio like an
+     * indeterminate {@link android.widget.ProgressBar} does.
+     */
+    private void updateIconBounds() {
+        if (icon == null) {
+            return;
+        }
+        int boxWidth = iconWidth;
+        int boxHeight = iconHeight - iconPaddingTop;
+        int width = boxWidth;
+        int height = boxHeight;
+        int intrinsicWidth = icon.getIntrinsicWidth();
+        int intrinsicHeight = icon.getIntrinsicHeight();
+        if (intrinsicWidth > 0 && intrinsicHeight > 0) {
+            float intrinsicAspect = (float) intrinsicWidth / intrinsicHeight;
+            float boxAspect = (float) boxWidth / boxHeight;
+            if (intrinsicAspect > boxAspect) {
+                height = (int) (boxWidth / intrinsicAspect);
+            } else {
+                width = (int) (boxHeight * intrinsicAspect);
+            }
+        }
+        int left = (boxWidth - width) / 2;
+        int top = iconPaddingTop + (boxHeight - height) / 2;
+        icon.setBounds(left, top, left + width, top + height);
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        background.draw(canvas);
+
+        int textTop = 0;
+        if (iconVisible && icon != null) {
+            if (!(icon instanceof Animatable) && icon == defaultSpinner) {
+                long time = SystemClock.uptimeMillis() % LEVEL_ANIMATION_DURATION_MS;
+                icon.setLevel((int) (time * MAX_LEVEL / LEVEL_ANIMATION_DURATION_MS));
+                // Only the spinner, like an Animatable one invalidating itself
+                Rect iconBounds = icon.getBounds();
+                postInvalidateOnAnimation(iconBounds.left, iconBounds.top,
+                        iconBounds.right, iconBounds.bottom);
+            }
+            icon.draw(canvas);
+            textTop = iconHeight;
+        }
+
+        if (textLayout != null) {
+            int textBoxHeight = getHeight() - textTop;
+            int save = canvas.save();
+            canvas.translate(textPaddingHorizontal, textTop + (textBoxHeight - textLayout.getHeight()) / 2f);
+            textLayout.draw(canvas);
+            canvas.restoreToCount(save);
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(@NonNull Drawable who) {
+        return who == icon || super.verifyDrawable(who);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateIconAnimation();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (icon != null) {
+            stopAnimation(icon);
+        }
+        super.onDetachedFromWindow();
+    }
+
+    private void updateIconAnimation() {
+        if (icon == null) {
+            return;
+        }
+        if (iconVisible && isAttachedToWindow()) {
+            if (icon instanceof Animatable && !((Animatable) icon).isRunning()) {
+                ((Animatable) icon).start();
+            }
+        } else {
+            stopAnimation(icon);
+        }
+    }
+
+    private static void stopAnimation(@NonNull Drawable drawable) {
+        if (drawable instanceof Animatable) {
+            ((Animatable) drawable).stop();
+        }
+    }
+
+    /**
+     * Loads the indeterminate drawable of the theme's progress bar style, the spinner a {@link
+     * android.widget.ProgressBar} would show, without creating one.
+     */
+    @Nullable
+    private static Drawable loadDefaultSpinner(@NonNull Context context) {
+        TypedArray a = context.obtainStyledAttributes(
+                null, new int[]{android.R.attr.indeterminateDrawable}, android.R.attr.progressBarStyle, 0);
+        try {
+            Drawable drawable = a.getDrawable(0);
+            return drawable != null ? drawable.mutate() : null;
+        } finally {
+            a.recycle();
+        }
+    }
+
+    /**
+     * Everything besides the text and width that a cached measurement depends on. Includes the
+     * color, as a cached layout draws with the paint it was built with.
+     */
+    private static final class TextStyle {
+        final float textSize;
+        final int textColor;
+        final int maxLines;
+        @NonNull
+        final Layout.Alignment alignment;
+
+        TextStyle(@NonNull TextPaint paint, int maxLines, int gravity) {
+            this.textSize = paint.getTextSize();
+            this.textColor = paint.getColor();
+            this.maxLines = maxLines;
+            this.alignment = getAlignment(gravity);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TextStyle)) {
+                return false;
+            }
+            TextStyle other = (TextStyle) o;
+            return textSize == other.textSize && textColor == other.textColor
+                    && maxLines == other.maxLines && alignment == other.alignment;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(textSize);
+            result = 31 * result + textColor;
+            result = 31 * result + maxLines;
+            return 31 * result + alignment.hashCode();
+        }
+    }
+}
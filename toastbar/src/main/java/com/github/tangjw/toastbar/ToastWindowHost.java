@@ -0,0 +1,184 @@
+package com.github.tangjw.toastbar;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.os.IBinder;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The root of a panel sub-window hosting a {@link ToastBaseLayout} on top of the window of its
+ * target parent, for {@link Toastbar#DISPLAY_MODE_WINDOW}.
+ *
+ * <p>The panel is sized and placed like the toast would be in its target parent, so adding,
+ * updating and removing the toast only lays out the toast's own tree. Touches outside the panel go
+ * to the window below, so a masked, full size toast blocks them just like in the content tree.
+ *
+ * <p>Each window keeps one host in its {@link ToastbarPool}. Its panel is added for the first
+ * toast and only hidden in between, so later toasts neither add nor remove a window. The panel is
+ * removed together with the window of the target parent, or when the pool is trimmed.
+ */
+final class ToastWindowHost extends FrameLayout implements View.OnAttachStateChangeListener {
+
+    @NonNull
+    private final WindowManager windowManager;
+    @NonNull
+    private final View anchor;
+    @NonNull
+    private final WindowManager.LayoutParams windowParams = new WindowManager.LayoutParams();
+    /**
+     * Whether the panel stays added once its toast is hidden; {@code false} for a host that is not
+     * the one kept by the pool.
+     */
+    private boolean retained;
+    private boolean added;
+    @Nullable
+    private ToastBaseLayout toast;
+
+    ToastWindowHost(@NonNull View anchor, boolean retained) {
+        super(anchor.getContext());
+        // The activity's window manager, so the panel inherits its hardware acceleration
+        this.windowManager = (WindowManager) anchor.getContext().getSystemService(Context.WINDOW_SERVICE);
+        this.anchor = anchor;
+        this.retained = retained;
+        windowParams.type = WindowManager.LayoutParams.TYPE_APPLICATION_PANEL;
+        windowParams.format = PixelFormat.TRANSLUCENT;
+        windowParams.flags = WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
+                | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL;
+        // Enter and exit are animated by ToastbarAnimator
+        windowParams.windowAnimations = 0;
+        windowParams.setTitle("Toastbar");
+    }
+
+    /**
+     * Whether no toast is shown in the panel, so it can take the next one.
+     */
+    boolean isIdle() {
+        return toast == null;
+    }
+
+    /**
+     * Shows {@code toast} in the panel over the window of the anchor, adding the panel if it is not
+     * added yet.
+     *
+     * @return {@code false} if the anchor is not attached to a window, so there is nothing to put
+     * a panel on.
+     */
+    boolean show(@NonNull ToastBaseLayout toast) {
+        if (!added) {
+            IBinder token = anchor.getWindowToken();
+            if (token == null) {
+                return false;
+            }
+            this.toast = toast;
+            addView(toast);
+            setVisibility(View.VISIBLE);
+            windowParams.token = token;
+            copyToastLayout();
+            windowManager.addView(this, windowParams);
+            anchor.addOnAttachStateChangeListener(this);
+            added = true;
+            return true;
+        }
+        this.toast = toast;
+        addView(toast);
+        if (copyToastLayout()) {
+            windowManager.updateViewLayout(this, windowParams);
+        }
+        setVisibility(View.VISIBLE);
+        return true;
+    }
+
+    /**
+     * Resizes the panel after the toast changed its layout params, e.g. when it became masked.
+     */
+    void syncWindowLayout() {
+        if (added && toast != null && copyToastLayout()) {
+            windowManager.updateViewLayout(this, windowParams);
+        }
+    }
+
+    /**
+     * Takes {@code toast} out of the panel and hides the panel until the next toast.
+     */
+    void hide(@NonNull ToastBaseLayout toast) {
+        if (this.toast != toast) {
+            // Already taken out with the panel
+            return;
+        }
+        if (!retained) {
+            remove();
+            return;
+        }
+        this.toast = null;
+        // Detaches the toast right away, so the caller can recycle it
+        removeView(toast);
+        setVisibility(View.GONE);
+    }
+
+    /**
+     * Removes the panel once it is idle, and does not keep it around after that; for trimming.
+     */
+    void release() {
+        retained = false;
+        if (toast == null) {
+            remove();
+        }
+    }
+
+    /**
+     * Removes the panel and the toast in it. The host adds the panel again for its next toast.
+     */
+    private void remove() {
+        if (added) {
+            added = false;
+            anchor.removeOnAttachStateChangeListener(this);
+            // Immediately, so the toast is detached by the time the caller recycles it
+            windowManager.removeViewImmediate(this);
+        }
+        if (toast != null) {
+            ToastBaseLayout removed = toast;
+            toast = null;
+            removeView(removed);
+        }
+    }
+
+    /**
+     * Copies the size and gravity the toast asks its parent for into the panel's params.
+     *
+     * @return whether anything changed.
+     */
+    private boolean copyToastLayout() {
+        ViewGroup.LayoutParams params = toast != null ? toast.getLayoutParams() : null;
+        int width = params != null ? params.width : ViewGroup.LayoutParams.WRAP_CONTENT;
+        int height = params != null ? params.height : ViewGroup.LayoutParams.WRAP_CONTENT;
+        int gravity = params instanceof FrameLayout.LayoutParams
+                && ((FrameLayout.LayoutParams) params).gravity != FrameLayout.LayoutParams.UNSPECIFIED_GRAVITY
+                ? ((FrameLayout.LayoutParams) params).gravity
+                : Gravity.CENTER;
+        if (windowParams.width == width && windowParams.height == height && windowParams.gravity == gravity) {
+            return false;
+        }
+        windowParams.width = width;
+        windowParams.height = height;
+        windowParams.gravity = gravity;
+        return true;
+    }
+
+    @Override
+    public void onViewAttachedToWindow(@NonNull View v) {
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(@NonNull View v) {
+        // The parent window is going away and takes its panels with it; detach the toast so its
+        // bar is told, instead of leaking the window
+        remove();
+    }
+}
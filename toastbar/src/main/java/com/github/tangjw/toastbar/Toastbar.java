@@ -1,35 +1,157 @@
 package com.github.tangjw.toastbar;
 
+import android.app.Activity;
 import android.content.Context;
-import android.content.res.ColorStateList;
+import android.content.ContextWrapper;
 import android.content.res.Resources;
 import android.graphics.Color;
-import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.GradientDrawable;
-import android.text.TextUtils;
-import android.util.TypedValue;
+import android.os.Looper;
+import android.util.DisplayMetrics;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
 import android.widget.FrameLayout;
-import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import androidx.annotation.DrawableRes;
+import androidx.annotation.IntDef;
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.graphics.drawable.DrawableCompat;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Toastbar extends BaseTransientBottomBar<Toastbar> {
 
+    /**
+     * Builds the content from framework widgets, a {@link ProgressBar} above a {@link TextView}.
+     * This is the default.
+     */
+    public static final int RENDER_MODE_HIERARCHY = 0;
+
+    /**
+     * Draws the content with a single view, for a shallower tree and a one pass measure.
+     */
+    public static final int RENDER_MODE_FLAT = 1;
+
+    /**
+     * Annotation for the ways the content of a toast can be rendered.
+     */
+    @IntDef({RENDER_MODE_HIERARCHY, RENDER_MODE_FLAT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface RenderMode {
+    }
+
+    @RenderMode
+    private static int renderMode = RENDER_MODE_HIERARCHY;
+
+    /**
+     * Adds toasts to the content view of their window, laying it out on every show and dismiss.
+     * This is the default.
+     */
+    public static final int DISPLAY_MODE_CONTENT = 0;
+
+    /**
+     * Shows toasts in a panel window over the window of their parent, so showing, updating and
+     * dismissing them never lays out the content view. The panel is added once per window and
+     * reused by later toasts. A mask covers the window, not only the parent. Falls back to {@link
+     * #DISPLAY_MODE_CONTENT} while the parent is not attached.
+     */
+    public static final int DISPLAY_MODE_WINDOW = 1;
+
+    /**
+     * Annotation for the places a toast can be shown in.
+     */
+    @IntDef({DISPLAY_MODE_CONTENT, DISPLAY_MODE_WINDOW})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface DisplayMode {
+    }
+
+    @DisplayMode
+    private static int displayMode = DISPLAY_MODE_CONTENT;
+
     private int status = 0;
 
+    // Content state, kept so a recycled hierarchy can be re-bound if this toast is shown again
+    @ToastbarPool.ContentType
+    private int contentType;
+    @NonNull
+    private CharSequence text = "";
+    @Nullable
+    private Drawable iconDrawable;
+    private int gravity;
+    private int maxLines;
+    private boolean iconVisible;
+    private boolean mask;
+    private int maskColor = ToastbarStyle.getDefault().getMaskColor();
+    // The display mode this toast was made in
+    private boolean hostInWindow;
+
+    private boolean repeatBadgeEnabled;
+    private int repeatCount = 1;
+
+    // What the view shows of the state above, which setters change right away and applyState()
+    // brings to the view once per frame
+    @Nullable
+    private CharSequence appliedText;
+    private int appliedGravity;
+    private boolean appliedIconVisible;
+    @Nullable
+    private Drawable appliedIcon;
+    // Whether the size and mask of the view need to be applied too
+    private boolean layoutPending;
+
+    // Determinate progress of makeProgress() toasts, set from any thread and drawn once per frame
+    @Nullable
+    private ToastbarProgressDrawable progressDrawable;
+    private final AtomicInteger pendingProgress = new AtomicInteger();
+    private final AtomicReference<CharSequence> pendingProgressLabel = new AtomicReference<>();
+    private final ToastbarFrameBatcher.FrameTask applyProgress = new ToastbarFrameBatcher.FrameTask() {
+        @Override
+        void onFrame() {
+            applyProgress();
+        }
+    };
+    private final ToastbarFrameBatcher.FrameTask applyState = new ToastbarFrameBatcher.FrameTask() {
+        @Override
+        void onFrame() {
+            applyState();
+        }
+    };
+
     public int getStatus() {
         return status;
     }
 
+    /**
+     * Sets how the content of toasts made from now on is rendered. {@link #setText}, {@link
+     * #setLoading} and {@link #setIcon} work the same in both modes.
+     */
+    public static void setRenderMode(@RenderMode int mode) {
+        renderMode = mode;
+    }
+
+    /**
+     * Sets where toasts made from now on are shown. Main thread only.
+     */
+    public static void setDisplayMode(@DisplayMode int mode) {
+        displayMode = mode;
+    }
+
+    /**
+     * Sets a listener told about the frame durations and missed frames of every toast enter and
+     * exit animation, or {@code null}, the default, to stop recording them. Main thread only.
+     */
+    public static void setFrameTimingListener(@Nullable ToastbarFrameTiming.Listener listener) {
+        ToastbarAnimator.getInstance().setFrameTimingListener(listener);
+    }
+
     @NonNull
     public static Toastbar make(
             @NonNull View view,
@@ -46,6 +168,24 @@ public class Toastbar extends BaseTransientBottomBar<Toastbar> {
         return makeInternal(view, text, Toastbar.LENGTH_INDEFINITE, true, enableMask, null);
     }
 
+    /**
+     * Makes a toast showing determinate progress in place of the spinner, starting at 0%. Update it
+     * with {@link #setProgress(int)} from any thread.
+     */
+    @NonNull
+    public static Toastbar makeProgress(
+            @NonNull View view,
+            @NonNull CharSequence text,
+            boolean enableMask) {
+        ToastbarProgressDrawable progressDrawable = new ToastbarProgressDrawable(
+                ToastbarStyle.getDefault().getIconTint());
+        Toastbar toastbar = makeInternal(view, text, Toastbar.LENGTH_INDEFINITE, true, enableMask,
+                progressDrawable);
+        toastbar.status = 3;
+        toastbar.progressDrawable = progressDrawable;
+        return toastbar;
+    }
+
     @NonNull
     private static Toastbar makeInternal(
             @NonNull View view,
@@ -59,117 +199,336 @@ public class Toastbar extends BaseTransientBottomBar<Toastbar> {
             throw new IllegalArgumentException(
                     "No suitable parent found from the given view. Please provide a valid view.");
         }
-        Context context = parent.getContext();
-        LinearLayout contentLayout = new LinearLayout(context);
-        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
-                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
-        params.gravity = Gravity.CENTER;
-        contentLayout.setLayoutParams(params);
-        contentLayout.setOrientation(LinearLayout.VERTICAL);
-
-        ProgressBar progressBar = new ProgressBar(context);
-        progressBar.setId(View.generateViewId());
-        LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(dp2px(context, 112), dp2px(context, 62));
-        progressBar.setPadding(0, dp2px(context, 20), 0, 0);
-        progressBar.setVisibility(View.GONE);
-        progressBar.setLayoutParams(layoutParams);
-        progressBar.setIndeterminateTintList(ColorStateList.valueOf(Color.WHITE));
-        if (iconDrawable != null) {
-            progressBar.setIndeterminateDrawable(iconDrawable);
-        }
-        contentLayout.addView(progressBar, 0);
-
-        TextView textView = new TextView(context);
-        textView.setLayoutParams(new LinearLayout.LayoutParams(
-                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        int contentType;
+        if (enableMask) {
+            contentType = ToastbarPool.TYPE_MASKED;
+        } else if (iconDrawable != null && !enableLoading) {
+            contentType = ToastbarPool.TYPE_ICON;
+        } else if (enableLoading) {
+            contentType = ToastbarPool.TYPE_LOADING;
+        } else {
+            contentType = ToastbarPool.TYPE_PLAIN;
+        }
+
+        final Toastbar toastbar = new Toastbar(parent, obtainLayout(parent, contentType), enableMask);
+        toastbar.contentType = contentType;
+        toastbar.text = text;
+        toastbar.iconDrawable = iconDrawable;
+        // An icon handed in, like the ring of makeProgress, is shown right away
+        toastbar.iconVisible = iconDrawable != null;
+        toastbar.hostInWindow = displayMode == DISPLAY_MODE_WINDOW;
         if (enableLoading || iconDrawable != null) {
-            textView.setMaxLines(1);
-            textView.setGravity(Gravity.CENTER);
+            toastbar.maxLines = 1;
+            toastbar.gravity = Gravity.CENTER;
         } else {
-            textView.setMaxLines(2);
-            textView.setGravity(Gravity.CENTER_VERTICAL | Gravity.START);
+            toastbar.maxLines = 2;
+            toastbar.gravity = Gravity.CENTER_VERTICAL | Gravity.START;
+        }
+        toastbar.bindContent();
+        toastbar.setDuration(duration);
+        return toastbar;
+    }
+
+    @NonNull
+    private static ToastBaseLayout obtainLayout(@NonNull ViewGroup parent, @ToastbarPool.ContentType int contentType) {
+        boolean flat = renderMode == RENDER_MODE_FLAT;
+        Context context = parent.getContext();
+        ToastbarStyle.Resolved style = ToastbarStyle.getDefault().resolve(context);
+        ToastBaseLayout layout = ToastbarPool.get(parent).acquire(contentType);
+        if (layout != null && (layout.getChildAt(0) instanceof ToastContentView) == flat
+                && ((ToastContent) layout.getChildAt(0)).getStyle() == style) {
+            return layout;
         }
+        // Nothing pooled, or pooled before the render mode, style or configuration changed
+        return newLayout(context, style);
+    }
 
-        textView.setEllipsize(TextUtils.TruncateAt.END);
-        textView.setIncludeFontPadding(false);
-        textView.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 14f);
-        textView.setText(text);
-        textView.setTextColor(Color.WHITE);
-        textView.setMinHeight(dp2px(context, 50));
-        //textView.setMaxWidth(dp2px(context,300));
-        textView.setPadding(dp2px(context, 14), 0, dp2px(context, 14), 0);
-        contentLayout.addView(textView, 1);
+    @NonNull
+    private static ToastBaseLayout newLayout(@NonNull Context context, @NonNull ToastbarStyle.Resolved style) {
+        ToastBaseLayout layout = new ToastBaseLayout(context);
+        layout.addView(renderMode == RENDER_MODE_FLAT
+                ? new ToastContentView(context, style)
+                : new ToastContentLayout(context, style));
+        return layout;
+    }
 
-        GradientDrawable background = new GradientDrawable();
-        background.setShape(GradientDrawable.RECTANGLE);
-        background.setCornerRadius(dp2px(context, 8));
+    /**
+     * Does the one-off work of the first toast the next time the main thread is idle: loads and
+     * initializes the toast classes, resolves the default style, rasterizes the default icon and
+     * builds and measures a toast hierarchy. Given an activity, the hierarchy is pooled for its
+     * window, so its first toast costs no more than later ones. Main thread only.
+     *
+     * @see ToastbarInitializer
+     */
+    @MainThread
+    public static void prewarm(@NonNull Context context) {
+        Looper.myQueue().addIdleHandler(() -> {
+            prewarmNow(context);
+            return false;
+        });
+    }
 
-        background.setColor(Color.parseColor("#DD3C3C3C"));
-        contentLayout.setBackground(DrawableCompat.wrap(background));
+    private static void prewarmNow(@NonNull Context context) {
+        // Calling us initialized BaseTransientBottomBar and its Handler already
+        ToastbarManager.getInstance();
+        ToastbarAnimator.getInstance();
+        ToastbarFrameBatcher.getInstance();
+        ToastbarIconCache.getInstance().get(context, R.drawable.ic_done_toastbar, ToastbarIconCache.NO_TINT);
+
+        Activity activity = findActivity(context);
+        ViewGroup parent = activity != null && activity.getWindow() != null
+                ? (ViewGroup) activity.findViewById(android.R.id.content)
+                : null;
+        ToastBaseLayout layout = parent != null
+                ? obtainLayout(parent, ToastbarPool.TYPE_PLAIN)
+                : newLayout(context, ToastbarStyle.getDefault().resolve(context));
+        // Loads the spinner and the font, and has the message measured in the background
+        ((ToastContent) layout.getChildAt(0)).bind("Toastbar", Gravity.CENTER, 1, true, null);
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        layout.measure(
+                View.MeasureSpec.makeMeasureSpec(metrics.widthPixels, View.MeasureSpec.AT_MOST),
+                View.MeasureSpec.makeMeasureSpec(metrics.heightPixels, View.MeasureSpec.AT_MOST));
+        if (parent != null) {
+            // Recycled and bound again when taken, so the spinner it was measured with does not matter
+            ToastbarPool.get(parent).release(ToastbarPool.TYPE_PLAIN, layout);
+        }
+    }
 
-        final Toastbar toastbar = new Toastbar(parent, contentLayout, enableMask);
-        toastbar.setDuration(duration);
-        return toastbar;
+    @Nullable
+    private static Activity findActivity(@NonNull Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return (Activity) context;
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+
+    private void bindContent() {
+        CharSequence message = getMessageText();
+        getContent().bind(message, gravity, maxLines, iconVisible, iconDrawable);
+        appliedText = message;
+        appliedGravity = gravity;
+        appliedIconVisible = iconVisible;
+        appliedIcon = iconDrawable;
+    }
+
+    /**
+     * Sets whether a "×N" badge is appended to the message when equal toasts are merged into this
+     * one.
+     *
+     * @see ToastbarManager#setCoalescingWindow(long)
+     */
+    @NonNull
+    public Toastbar setRepeatBadgeEnabled(boolean enabled) {
+        repeatBadgeEnabled = enabled;
+        return this;
     }
 
     public void setText(@NonNull CharSequence message) {
         status = 0;
-        view.post(() -> {
-            getMessageView().setText(message);
-            getMessageView().setGravity(Gravity.CENTER_VERTICAL);
-            getIconView().setVisibility(View.GONE);
-        });
+        text = message;
+        repeatCount = 1;
+        gravity = Gravity.CENTER_VERTICAL;
+        iconVisible = false;
+        if (!mask) {
+            contentType = ToastbarPool.TYPE_PLAIN;
+        }
+        scheduleApplyState();
     }
 
     public void setLoading(boolean isMask, int color) {
         status = 1;
-        view.post(() -> {
-            getIconView().setVisibility(View.VISIBLE);
-            getMessageView().setGravity(Gravity.CENTER);
-            FrameLayout.LayoutParams params = (FrameLayout.LayoutParams) view.getLayoutParams();
-            if (isMask) {
-                params.width = ViewGroup.LayoutParams.MATCH_PARENT;
-                params.height = ViewGroup.LayoutParams.MATCH_PARENT;
-                view.setBackgroundColor(color);
-                view.setLayoutParams(params);
-            } else {
-                params.width = ViewGroup.LayoutParams.WRAP_CONTENT;
-                params.height = ViewGroup.LayoutParams.WRAP_CONTENT;
-                params.gravity = Gravity.CENTER;
-                view.setBackground(null);
-                view.setLayoutParams(params);
-            }
-        });
+        gravity = Gravity.CENTER;
+        iconVisible = true;
+        mask = isMask;
+        maskColor = color;
+        contentType = isMask ? ToastbarPool.TYPE_MASKED : ToastbarPool.TYPE_LOADING;
+        layoutPending = true;
+        scheduleApplyState();
+    }
+
+    /**
+     * Shows the icon {@code iconId} in place of the spinner. The icon is inflated and rasterized
+     * once per density and shared by all toasts showing it.
+     */
+    public void setIcon(@DrawableRes int iconId) {
+        Drawable icon = ToastbarIconCache.getInstance()
+                .get(view.getContext(), iconId, ToastbarIconCache.NO_TINT);
+        if (icon != null) {
+            setIcon(icon);
+        }
     }
 
     public void setIcon(Drawable iconDrawable) {
         status = 2;
-        view.post(() -> {
-            Rect bounds = getIconView().getIndeterminateDrawable().getBounds();
-            getIconView().setIndeterminateDrawable(iconDrawable);
-            getIconView().getIndeterminateDrawable().setBounds(bounds);
-            getIconView().setVisibility(View.VISIBLE);
-            getMessageView().setGravity(Gravity.CENTER);
-            FrameLayout.LayoutParams params = (FrameLayout.LayoutParams) view.getLayoutParams();
-            params.width = ViewGroup.LayoutParams.WRAP_CONTENT;
-            params.height = ViewGroup.LayoutParams.WRAP_CONTENT;
+        this.iconDrawable = iconDrawable;
+        gravity = Gravity.CENTER;
+        iconVisible = true;
+        mask = false;
+        contentType = ToastbarPool.TYPE_ICON;
+        layoutPending = true;
+        scheduleApplyState();
+    }
+
+    /**
+     * Sets the progress of a {@link #makeProgress} toast, from 0 to 100. Can be called from any
+     * thread and at any rate: only the last value set before a frame is drawn, and drawing it only
+     * repaints the progress indicator.
+     */
+    public void setProgress(int percent) {
+        pendingProgress.set(Math.max(0, Math.min(100, percent)));
+        ToastbarFrameBatcher.getInstance().schedule(applyProgress);
+    }
+
+    /**
+     * Sets the progress of a {@link #makeProgress} toast and its message. Can be called from any
+     * thread and at any rate like {@link #setProgress(int)}; the message is only measured again if
+     * it changed by the time the frame is drawn.
+     */
+    public void setProgress(int percent, @NonNull CharSequence label) {
+        pendingProgressLabel.set(label);
+        setProgress(percent);
+    }
+
+    private void applyProgress() {
+        if (isRecycled() || progressDrawable == null) {
+            return;
+        }
+        CharSequence label = pendingProgressLabel.getAndSet(null);
+        if (label != null) {
+            text = label;
+            repeatCount = 1;
+            applyState();
+        }
+        progressDrawable.setLevel(pendingProgress.get() * 100);
+    }
+
+    /**
+     * Applies the state set since the last frame at the start of the next one, so a run of setters
+     * such as {@link #setText} followed by {@link #setLoading} costs one layout pass.
+     */
+    private void scheduleApplyState() {
+        ToastbarFrameBatcher.getInstance().schedule(applyState);
+    }
+
+    /**
+     * Brings the view in line with the content state, touching only what differs from what it
+     * shows.
+     */
+    private void applyState() {
+        if (isRecycled() || !(view.getChildAt(0) instanceof ToastContent)) {
+            return;
+        }
+        ToastContent content = getContent();
+        CharSequence message = getMessageText();
+        if (!isSameText(message, appliedText)) {
+            content.setMessage(message);
+            appliedText = message;
+        }
+        if (gravity != appliedGravity) {
+            content.setMessageGravity(gravity);
+            appliedGravity = gravity;
+        }
+        if (iconDrawable != null && iconDrawable != appliedIcon) {
+            content.setIcon(iconDrawable);
+            appliedIcon = iconDrawable;
+        }
+        if (iconVisible != appliedIconVisible) {
+            content.setIconVisible(iconVisible);
+            appliedIconVisible = iconVisible;
+        }
+        if (layoutPending) {
+            layoutPending = false;
+            applyLayoutState();
+        }
+    }
+
+    private void applyLayoutState() {
+        int scrimColor = mask ? maskColor : Color.TRANSPARENT;
+        if (view.getScrimColor() != scrimColor) {
+            view.setScrimColor(scrimColor);
+        }
+        FrameLayout.LayoutParams params = (FrameLayout.LayoutParams) view.getLayoutParams();
+        int size = mask ? ViewGroup.LayoutParams.MATCH_PARENT : ViewGroup.LayoutParams.WRAP_CONTENT;
+        boolean changed = params.width != size || params.height != size;
+        params.width = size;
+        params.height = size;
+        if (!mask && params.gravity != Gravity.CENTER) {
             params.gravity = Gravity.CENTER;
-            view.setBackground(null);
+            changed = true;
+        }
+        if (changed) {
             view.setLayoutParams(params);
-        });
+        }
+    }
+
+    private static boolean isSameText(@NonNull CharSequence text, @Nullable CharSequence applied) {
+        // Styled text may differ in its spans only, so it is only compared by identity
+        return text == applied || (text instanceof String && text.equals(applied));
+    }
+
+    private ToastContent getContent() {
+        return (ToastContent) view.getChildAt(0);
+    }
+
+    @Override
+    int getContentType() {
+        return contentType;
+    }
+
+    @Nullable
+    @Override
+    Object getContentKey() {
+        return new ToastContentKey(text, status == 2 ? iconDrawable : null, status);
+    }
+
+    @Override
+    void onRepeat(int count) {
+        repeatCount = count;
+        if (repeatBadgeEnabled && !isRecycled()) {
+            // Update in place, the toast keeps its animation and layout
+            appliedText = getMessageText();
+            getContent().setMessage(appliedText);
+        }
+    }
+
+    @NonNull
+    private CharSequence getMessageText() {
+        if (!repeatBadgeEnabled || repeatCount <= 1) {
+            return text;
+        }
+        return text + " \u00d7" + repeatCount;
     }
 
+    @Override
+    boolean isMaskEnabled() {
+        return mask;
+    }
 
-    private TextView getMessageView() {
-        return (TextView) getContentLayout().getChildAt(1);
+    @NonNull
+    @Override
+    ToastBaseLayout onRecreateView() {
+        return obtainLayout(targetParent, contentType);
     }
 
-    private ProgressBar getIconView() {
-        return (ProgressBar) getContentLayout().getChildAt(0);
+    @Override
+    void onViewRecreated() {
+        bindContent();
+        if (mask) {
+            view.setScrimColor(maskColor);
+        }
     }
 
-    private LinearLayout getContentLayout() {
-        return (LinearLayout) view.getChildAt(0);
+    @Override
+    void onBeforeShowView() {
+        view.setHostInWindow(hostInWindow);
+        if (view.getChildAt(0) instanceof ToastContent) {
+            // Lay out the first time with what was set so far rather than change it a frame later
+            applyState();
+            getContent().applyPrecomputedText();
+        }
     }
 
     @Override
@@ -179,6 +538,13 @@ public class Toastbar extends BaseTransientBottomBar<Toastbar> {
 
     protected Toastbar(@NonNull ViewGroup parent, @NonNull View content, boolean enableMask) {
         super(parent.getContext(), parent, content, enableMask);
+        this.mask = enableMask;
+        contentType = ToastbarPool.TYPE_NONE;
+    }
+
+    private Toastbar(@NonNull ViewGroup parent, @NonNull ToastBaseLayout layout, boolean enableMask) {
+        super(parent.getContext(), parent, layout, enableMask);
+        this.mask = enableMask;
     }
 
 
@@ -239,17 +605,4 @@ public class Toastbar extends BaseTransientBottomBar<Toastbar> {
         return fallback;
     }
 
-    private static int dp2px(Context context, float dp) {
-//        context.getApplicationContext()
-//        context
-
-//        view.getApp
-//         context.getResources().getDisplayMetrics()
-
-        return (int) TypedValue.applyDimension(
-                TypedValue.COMPLEX_UNIT_DIP,
-                dp,
-                context.getResources().getDisplayMetrics());
-    }
-
 }
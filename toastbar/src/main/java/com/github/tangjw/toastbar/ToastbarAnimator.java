@@ -0,0 +1,342 @@
+package com.github.tangjw.toastbar;
+
+import android.animation.TimeInterpolator;
+import android.animation.ValueAnimator;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Runs the enter and exit transitions of all toasts from a single {@link Choreographer} frame
+ * callback.
+ *
+ * <p>Transitions are described by shared, immutable {@link Spec}s and each bar owns one reusable
+ * {@link Transition}, so starting a transition allocates nothing and a frame only does primitive
+ * float math, however many toasts are animating at once. Main thread only.
+ *
+ * <p>To keep the GPU cost of a fade low, the content card and the scrim behind it are animated
+ * separately: the card's alpha and scale on a hardware layer that only exists for the length of
+ * the transition, the scrim through the alpha of its own drawable. A full screen masked toast thus
+ * never needs an offscreen buffer the size of the screen.
+ *
+ * <p>While a {@link ToastbarFrameTiming.Listener} is set, every transition also records the
+ * interval between the frames that stepped it. Without one, recording costs a boolean check per
+ * frame.
+ */
+final class ToastbarAnimator implements Choreographer.FrameCallback {
+
+    /**
+     * Start from whatever value the view currently has.
+     */
+    static final float FROM_CURRENT = Float.NaN;
+
+    /**
+     * An immutable description of a fade and scale transition.
+     */
+    static final class Spec {
+        final long durationMs;
+        final float fromAlpha;
+        final float toAlpha;
+        @NonNull
+        final TimeInterpolator alphaInterpolator;
+        final float fromScale;
+        final float toScale;
+        /**
+         * {@code null} if this transition leaves the scale alone.
+         */
+        @Nullable
+        final TimeInterpolator scaleInterpolator;
+
+        Spec(long durationMs,
+             float fromAlpha, float toAlpha, @NonNull TimeInterpolator alphaInterpolator,
+             float fromScale, float toScale, @Nullable TimeInterpolator scaleInterpolator) {
+            this.durationMs = durationMs;
+            this.fromAlpha = fromAlpha;
+            this.toAlpha = toAlpha;
+            this.alphaInterpolator = alphaInterpolator;
+            this.fromScale = fromScale;
+            this.toScale = toScale;
+            this.scaleInterpolator = scaleInterpolator;
+        }
+    }
+
+    /**
+     * Notified on the main thread when a transition has run to its end, or was replaced by
+     * another one before that.
+     */
+    interface Listener {
+        void onTransitionEnd(@NonNull Spec spec);
+    }
+
+    /**
+     * The animation state of one toast. Owned by its bar and reused for every transition.
+     */
+    static final class Transition {
+        @NonNull
+        private final Listener listener;
+        @Nullable
+        private View target;
+        @Nullable
+        private Drawable scrim;
+        private boolean layered;
+        @Nullable
+        private Spec spec;
+        private long startTimeNanos;
+        private float startAlpha;
+        private float startScale;
+        private int activeIndex = -1;
+        @Nullable
+        private FrameRecorder frames;
+        private boolean recordingFrames;
+
+        Transition(@NonNull Listener listener) {
+            this.listener = listener;
+        }
+
+        boolean isRunning() {
+            return activeIndex >= 0;
+        }
+
+        /**
+         * Returns the frames of the last transition, or {@code null} if frame timing was off when
+         * it started.
+         */
+        @Nullable
+        FrameRecorder getFrames() {
+            return recordingFrames ? frames : null;
+        }
+    }
+
+    /**
+     * The frame intervals of one transition, reused by the next transition of the same toast.
+     */
+    static final class FrameRecorder {
+        @NonNull
+        private long[] durationsNanos = new long[16];
+        private int count;
+        private int missed;
+        private long refreshIntervalNanos;
+        private long lastFrameTimeNanos;
+
+        void reset(long refreshIntervalNanos) {
+            this.refreshIntervalNanos = refreshIntervalNanos;
+            count = 0;
+            missed = 0;
+            lastFrameTimeNanos = NOT_STARTED;
+        }
+
+        void onFrame(long frameTimeNanos) {
+            if (lastFrameTimeNanos != NOT_STARTED) {
+                long duration = frameTimeNanos - lastFrameTimeNanos;
+                if (count == durationsNanos.length) {
+                    durationsNanos = Arrays.copyOf(durationsNanos, count * 2);
+                }
+                durationsNanos[count++] = duration;
+                // Frame times are vsync aligned, anything past one interval is a skipped vsync
+                missed += Math.max(0, Math.round((double) duration / refreshIntervalNanos) - 1);
+            }
+            lastFrameTimeNanos = frameTimeNanos;
+        }
+
+        @NonNull
+        long[] copyDurations() {
+            return Arrays.copyOf(durationsNanos, count);
+        }
+
+        int getMissedFrames() {
+            return missed;
+        }
+
+        long getRefreshIntervalNanos() {
+            return refreshIntervalNanos;
+        }
+    }
+
+    private static final long NANOS_PER_MS = 1_000_000L;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+    private static final long NOT_STARTED = -1;
+
+    private static final ToastbarAnimator instance = new ToastbarAnimator();
+
+    @NonNull
+    static ToastbarAnimator getInstance() {
+        return instance;
+    }
+
+    @NonNull
+    private Transition[] active = new Transition[4];
+    private int activeCount;
+    private boolean frameCallbackPosted;
+    @Nullable
+    private ToastbarFrameTiming.Listener frameTimingListener;
+
+    private ToastbarAnimator() {
+    }
+
+    /**
+     * Sets the listener told about the frames of every transition started from now on, or {@code
+     * null} to stop recording them.
+     */
+    void setFrameTimingListener(@Nullable ToastbarFrameTiming.Listener listener) {
+        frameTimingListener = listener;
+    }
+
+    @Nullable
+    ToastbarFrameTiming.Listener getFrameTimingListener() {
+        return frameTimingListener;
+    }
+
+    /**
+     * Starts {@code spec} on {@code target}. A transition still running on {@code transition} is
+     * replaced and its listener told it ended.
+     *
+     * @param scrim a drawable behind {@code target} whose alpha follows that of {@code target}, or
+     *              {@code null}.
+     */
+    void start(@NonNull Transition transition, @NonNull View target, @Nullable Drawable scrim,
+               @NonNull Spec spec) {
+        Spec replaced = transition.isRunning() ? transition.spec : null;
+        if (replaced == null) {
+            add(transition);
+        } else if (transition.target != target) {
+            releaseLayer(transition);
+        }
+        transition.target = target;
+        transition.scrim = scrim;
+        transition.spec = spec;
+        if (!transition.layered && target.hasOverlappingRendering()) {
+            // Fading overlapping content needs a layer; only keep it while the transition runs
+            transition.layered = true;
+            target.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        }
+        transition.startTimeNanos = NOT_STARTED;
+        transition.startAlpha = Float.isNaN(spec.fromAlpha) ? target.getAlpha() : spec.fromAlpha;
+        transition.startScale = Float.isNaN(spec.fromScale) ? target.getScaleX() : spec.fromScale;
+        // Apply the start values right away so the view doesn't flash before the first frame
+        apply(transition, 0f);
+        if (replaced != null) {
+            transition.listener.onTransitionEnd(replaced);
+        }
+        // After notifying, so the replaced transition could still report its frames
+        transition.recordingFrames = frameTimingListener != null;
+        if (transition.recordingFrames) {
+            if (transition.frames == null) {
+                transition.frames = new FrameRecorder();
+            }
+            transition.frames.reset(getRefreshIntervalNanos(target));
+        }
+        if (!frameCallbackPosted) {
+            frameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Stops {@code transition} where it is, without notifying its listener.
+     */
+    void cancel(@NonNull Transition transition) {
+        if (transition.isRunning()) {
+            remove(transition);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameCallbackPosted = false;
+        float durationScale = getDurationScale();
+        // Walk backwards so finished transitions can be swap-removed, and transitions started by
+        // listeners are first stepped on the next frame
+        for (int i = activeCount - 1; i >= 0; i--) {
+            if (i >= activeCount) {
+                // A listener cancelled transitions behind us
+                continue;
+            }
+            Transition transition = active[i];
+            if (transition.startTimeNanos == NOT_STARTED) {
+                transition.startTimeNanos = frameTimeNanos;
+            }
+            if (transition.recordingFrames) {
+                transition.frames.onFrame(frameTimeNanos);
+            }
+            Spec spec = transition.spec;
+            long durationNanos = (long) (spec.durationMs * durationScale * NANOS_PER_MS);
+            float fraction = durationNanos <= 0
+                    ? 1f
+                    : Math.min(1f, (float) (frameTimeNanos - transition.startTimeNanos) / durationNanos);
+            apply(transition, fraction);
+            if (fraction >= 1f) {
+                remove(transition);
+                transition.listener.onTransitionEnd(spec);
+            }
+        }
+        if (activeCount > 0 && !frameCallbackPosted) {
+            frameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    private static void apply(@NonNull Transition transition, float fraction) {
+        Spec spec = transition.spec;
+        View target = transition.target;
+        float alpha = transition.startAlpha
+                + (spec.toAlpha - transition.startAlpha) * spec.alphaInterpolator.getInterpolation(fraction);
+        target.setAlpha(alpha);
+        if (transition.scrim != null) {
+            transition.scrim.setAlpha((int) (alpha * 255 + 0.5f));
+        }
+        if (spec.scaleInterpolator != null) {
+            float scale = transition.startScale
+                    + (spec.toScale - transition.startScale) * spec.scaleInterpolator.getInterpolation(fraction);
+            target.setScaleX(scale);
+            target.setScaleY(scale);
+        }
+    }
+
+    private void add(@NonNull Transition transition) {
+        if (activeCount == active.length) {
+            active = Arrays.copyOf(active, activeCount * 2);
+        }
+        transition.activeIndex = activeCount;
+        active[activeCount++] = transition;
+    }
+
+    private void remove(@NonNull Transition transition) {
+        int index = transition.activeIndex;
+        int last = --activeCount;
+        active[index] = active[last];
+        active[index].activeIndex = index;
+        active[last] = null;
+        transition.activeIndex = -1;
+        releaseLayer(transition);
+        transition.target = null;
+        transition.scrim = null;
+    }
+
+    private static void releaseLayer(@NonNull Transition transition) {
+        if (transition.layered) {
+            transition.layered = false;
+            transition.target.setLayerType(View.LAYER_TYPE_NONE, null);
+        }
+    }
+
+    private static long getRefreshIntervalNanos(@NonNull View target) {
+        Display display = target.getDisplay();
+        float refreshRate = display != null ? display.getRefreshRate() : DEFAULT_REFRESH_RATE;
+        return (long) (NANOS_PER_SECOND / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE));
+    }
+
+    private static float getDurationScale() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return ValueAnimator.getDurationScale();
+        }
+        return 1f;
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.tangjw.toastbar;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs work submitted from any thread once on the main thread at the start of the next frame.
+ *
+ * <p>A {@link FrameTask} is in the batch at most once however often it is scheduled, so callers
+ * keep their latest state in the task and let earlier submissions within the same frame be
+ * superseded. Only the first submission of a frame costs a {@link Choreographer} callback, plus a
+ * single {@link Handler} post when it comes from another thread.
+ */
+final class ToastbarFrameBatcher implements Choreographer.FrameCallback {
+
+    /**
+     * Work to run on the next frame.
+     */
+    abstract static class FrameTask {
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Called on the main thread. The task may be scheduled again from here, it then runs on the
+         * following frame.
+         */
+        abstract void onFrame();
+    }
+
+    private static final ToastbarFrameBatcher instance = new ToastbarFrameBatcher();
+
+    @NonNull
+    static ToastbarFrameBatcher getInstance() {
+        return instance;
+    }
+
+    @NonNull
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    @NonNull
+    private final ConcurrentLinkedQueue<FrameTask> tasks = new ConcurrentLinkedQueue<>();
+    @NonNull
+    private final AtomicInteger taskCount = new AtomicInteger();
+    @NonNull
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    @NonNull
+    private final Runnable postFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(ToastbarFrameBatcher.this);
+        }
+    };
+
+    private ToastbarFrameBatcher() {
+    }
+
+    /**
+     * Adds {@code task} to the next frame's batch unless it is already part of it. Safe to call
+     * from any thread.
+     */
+    void schedule(@NonNull FrameTask task) {
+        if (!task.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        tasks.offer(task);
+        taskCount.incrementAndGet();
+        if (frameScheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                postFrameCallback.run();
+            } else {
+                handler.post(postFrameCallback);
+            }
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled.set(false);
+        // Only run what was batched so far, tasks scheduled while running wait for the next frame
+        int count = taskCount.getAndSet(0);
+        for (int i = 0; i < count; i++) {
+            FrameTask task = tasks.poll();
+            if (task == null) {
+                break;
+            }
+            task.scheduled.set(false);
+            task.onFrame();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.tangjw.toastbar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The frames of one toast enter or exit animation, reported to the {@link Listener} set with
+ * {@link Toastbar#setFrameTimingListener}.
+ *
+ * <p>Frame durations are the intervals between the vsync aligned frame times of consecutive
+ * animation steps, so a duration of about two refresh intervals means one frame was missed.
+ */
+public final class ToastbarFrameTiming {
+
+    /**
+     * Content that is not pooled, e.g. a custom view.
+     */
+    public static final int CONTENT_CUSTOM = ToastbarPool.TYPE_NONE;
+    public static final int CONTENT_PLAIN = ToastbarPool.TYPE_PLAIN;
+    public static final int CONTENT_LOADING = ToastbarPool.TYPE_LOADING;
+    public static final int CONTENT_ICON = ToastbarPool.TYPE_ICON;
+    public static final int CONTENT_MASKED = ToastbarPool.TYPE_MASKED;
+
+    /**
+     * Receives the frame timing of toast animations on the main thread.
+     */
+    public interface Listener {
+        void onFrameTiming(@NonNull ToastbarFrameTiming timing);
+    }
+
+    private final int contentType;
+    private final boolean masked;
+    private final boolean enter;
+    @NonNull
+    private final long[] frameDurationsNanos;
+    private final int missedFrames;
+    private final long refreshIntervalNanos;
+
+    ToastbarFrameTiming(int contentType, boolean masked, boolean enter,
+                        @NonNull ToastbarAnimator.FrameRecorder frames) {
+        this.contentType = contentType;
+        this.masked = masked;
+        this.enter = enter;
+        this.frameDurationsNanos = frames.copyDurations();
+        this.missedFrames = frames.getMissedFrames();
+        this.refreshIntervalNanos = frames.getRefreshIntervalNanos();
+    }
+
+    /**
+     * Returns one of the {@code CONTENT_} constants.
+     */
+    public int getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns whether the toast dims the screen behind it.
+     */
+    public boolean isMasked() {
+        return masked;
+    }
+
+    /**
+     * Returns whether this was the enter animation, rather than the exit one.
+     */
+    public boolean isEnter() {
+        return enter;
+    }
+
+    public int getFrameCount() {
+        return frameDurationsNanos.length;
+    }
+
+    public long getFrameDurationNanos(int frame) {
+        return frameDurationsNanos[frame];
+    }
+
+    /**
+     * Returns how many vsyncs passed without the animation being stepped.
+     */
+    public int getMissedFrames() {
+        return missedFrames;
+    }
+
+    public long getRefreshIntervalNanos() {
+        return refreshIntervalNanos;
+    }
+}
@@ -1,32 +1,223 @@
 package com.github.tangjw.toastbar;
 
-import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.view.View;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.DrawableRes;
-import androidx.core.content.ContextCompat;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.view.ViewCompat;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.ViewTreeLifecycleOwner;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shows messages, progress and icon toasts in a window, reusing the toast that is already shown
+ * where possible.
+ *
+ * <p>The {@code message}, {@code progress}, {@code toastIcon} and {@code dismiss} methods must be
+ * called on the main thread. Their {@code post} counterparts can be called from any thread: they
+ * are applied on the main thread at the start of the next frame, and only the last one posted
+ * before that frame takes effect.
+ *
+ * <p>Get the helper shared by a window or lifecycle owner with {@link #of(View)} or {@link
+ * #of(LifecycleOwner, View)} rather than constructing one per screen. A shared helper holds back
+ * requests while its owner is stopped and shows the last one when it starts again, and lets go of
+ * its views and toast when the owner is destroyed or its window goes away.
+ */
 public class ToastbarHelper {
 
+    // Shared helpers by lifecycle owner or root view, main thread only. Entries are removed on
+    // release, the values reference their keys so a weak map would not let go of them anyway.
+    private static final Map<Object, ToastbarHelper> helpers = new HashMap<>();
+
+    /**
+     * Returns the helper shared by the window of {@code view}, bound to the lifecycle of that
+     * window's owner if it has one, or else to the window itself.
+     */
+    @NonNull
+    @MainThread
+    public static ToastbarHelper of(@NonNull View view) {
+        View root = view.getRootView();
+        LifecycleOwner owner = ViewTreeLifecycleOwner.get(root);
+        if (owner != null) {
+            return of(owner, view);
+        }
+        ToastbarHelper helper = helpers.get(root);
+        if (helper != null) {
+            return helper;
+        }
+        helper = new ToastbarHelper(view);
+        if (ViewCompat.isAttachedToWindow(root)) {
+            // Not shared before the window exists, it could never tell us it went away
+            helper.registryKey = root;
+            helpers.put(root, helper);
+            root.addOnAttachStateChangeListener(helper.releaseOnDetach);
+        }
+        return helper;
+    }
+
+    /**
+     * Returns the helper shared by {@code owner}, showing toasts in the window of {@code parent}
+     * the first time it is asked for.
+     */
+    @NonNull
+    @MainThread
+    public static ToastbarHelper of(@NonNull LifecycleOwner owner, @NonNull View parent) {
+        ToastbarHelper helper = helpers.get(owner);
+        if (helper != null) {
+            return helper;
+        }
+        helper = new ToastbarHelper(parent);
+        Lifecycle lifecycle = owner.getLifecycle();
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            helper.release();
+            return helper;
+        }
+        helper.registryKey = owner;
+        helper.lifecycle = lifecycle;
+        // Held back until the owner is started; adding the observer replays the events up to the
+        // current state
+        helper.stopped = true;
+        helpers.put(owner, helper);
+        lifecycle.addObserver(helper.lifecycleObserver);
+        return helper;
+    }
+
     private View parent;
     private String message;
     private int duration = Toastbar.LENGTH_SHORT;
     private Drawable drawable;
     private int loadingStatus;
     private Toastbar toastbar;
+    private boolean repeatBadgeEnabled;
+
+    // Set while a shared helper's owner is stopped, requests wait in pendingRequest meanwhile
+    private boolean stopped;
+    @Nullable
+    private Object registryKey;
+    @Nullable
+    private Lifecycle lifecycle;
+    private final LifecycleEventObserver lifecycleObserver = (source, event) -> {
+        switch (event) {
+            case ON_START:
+                start();
+                break;
+            case ON_STOP:
+                stopped = true;
+                break;
+            case ON_DESTROY:
+                release();
+                break;
+            default:
+                break;
+        }
+    };
+    private final View.OnAttachStateChangeListener releaseOnDetach =
+            new View.OnAttachStateChangeListener() {
+                @Override
+                public void onViewAttachedToWindow(@NonNull View v) {
+                }
+
+                @Override
+                public void onViewDetachedFromWindow(@NonNull View v) {
+                    release();
+                }
+            };
+
+    private final AtomicReference<PendingRequest> pendingRequest = new AtomicReference<>();
+    private final ToastbarFrameBatcher.FrameTask applyPendingRequest =
+            new ToastbarFrameBatcher.FrameTask() {
+                @Override
+                void onFrame() {
+                    if (stopped) {
+                        // Left pending until start()
+                        return;
+                    }
+                    PendingRequest request = pendingRequest.getAndSet(null);
+                    if (request != null) {
+                        request.applyTo(ToastbarHelper.this);
+                    }
+                }
+            };
 
     public ToastbarHelper(View parent) {
         this.parent = parent;
     }
 
+    private void start() {
+        stopped = false;
+        if (pendingRequest.get() != null) {
+            ToastbarFrameBatcher.getInstance().schedule(applyPendingRequest);
+        }
+    }
+
+    /**
+     * Drops pending requests, dismisses the toast and lets go of the views of a shared helper.
+     * Later calls do nothing.
+     */
+    private void release() {
+        stopped = true;
+        pendingRequest.set(null);
+        if (toastbar != null && toastbar.isShownOrQueued()) {
+            toastbar.dismiss();
+        }
+        toastbar = null;
+        drawable = null;
+        if (parent != null && registryKey == parent.getRootView()) {
+            parent.getRootView().removeOnAttachStateChangeListener(releaseOnDetach);
+        }
+        parent = null;
+        if (lifecycle != null) {
+            lifecycle.removeObserver(lifecycleObserver);
+            lifecycle = null;
+        }
+        if (registryKey != null) {
+            helpers.remove(registryKey);
+            registryKey = null;
+        }
+    }
+
+    /**
+     * Keeps {@code request} to be applied when the owner starts again, replacing any kept before.
+     */
+    private void defer(PendingRequest request) {
+        pendingRequest.set(request);
+    }
+
+    /**
+     * Sets whether toasts show a "×N" badge when repeated messages are merged into them.
+     *
+     * @see ToastbarManager#setCoalescingWindow(long)
+     */
+    public void setRepeatBadgeEnabled(boolean enabled) {
+        this.repeatBadgeEnabled = enabled;
+        if (toastbar != null) {
+            toastbar.setRepeatBadgeEnabled(enabled);
+        }
+    }
+
     public void message(String message) {
         this.message(message, Toastbar.LENGTH_SHORT);
     }
 
     public void message(String message, int duration) {
-        showMsg(message, duration);
+        showMsg(message, duration, Toastbar.PRIORITY_INFO);
+    }
+
+    public void error(String message) {
+        this.error(message, Toastbar.LENGTH_SHORT);
+    }
+
+    public void error(String message, int duration) {
+        showMsg(message, duration, Toastbar.PRIORITY_ERROR);
     }
 
     public void progress(String message) {
@@ -34,7 +225,7 @@ public class ToastbarHelper {
     }
 
     public void progress(String message, boolean isMask) {
-        this.progress(message, isMask, Color.parseColor("#33000000"));
+        this.progress(message, isMask, ToastbarStyle.getDefault().getMaskColor());
     }
 
     public void progress(String message, boolean isMask, @ColorInt int colorMask) {
@@ -58,33 +249,81 @@ public class ToastbarHelper {
     }
 
     private void showIcon(String message, int drawableId) {
+        if (parent == null) {
+            return;
+        }
+        if (stopped) {
+            PendingRequest request =
+                    new PendingRequest(PendingRequest.ICON, message, Toastbar.LENGTH_SHORT, Toastbar.PRIORITY_SUCCESS);
+            request.drawableId = drawableId;
+            defer(request);
+            return;
+        }
+        Drawable icon = ToastbarIconCache.getInstance()
+                .get(parent.getContext(), drawableId, ToastbarIconCache.NO_TINT);
         if (toastbar != null && toastbar.isShownOrQueued() && toastbar.getStatus() != 0) {
             toastbar.setText(message);
             toastbar.setDuration(duration);
         } else {
+            // Only a new toast is merged or limited, updating our own shown toast never is
+            if (ToastbarManager.getInstance().tryCoalesce(parent, new ToastContentKey(message, icon, 2))
+                    || ToastbarManager.getInstance().tryRateLimit(parent)) {
+                return;
+            }
             toastbar = Toastbar.make(parent, message, Toastbar.LENGTH_SHORT);
+            toastbar.setRepeatBadgeEnabled(repeatBadgeEnabled);
         }
 
-        toastbar.setIcon(ContextCompat.getDrawable(parent.getContext(), drawableId));
+        toastbar.setIcon(icon);
+        toastbar.setPriority(Toastbar.PRIORITY_SUCCESS);
         toastbar.show();
     }
 
-    private void showMsg(String message, int duration) {
+    private void showMsg(String message, int duration, int priority) {
+        if (parent == null) {
+            return;
+        }
+        if (stopped) {
+            defer(new PendingRequest(PendingRequest.MESSAGE, message, duration, priority));
+            return;
+        }
         if (toastbar != null && toastbar.isShownOrQueued() && toastbar.getStatus() == 0) {
             toastbar.setText(message);
             toastbar.setDuration(duration);
         } else {
+            if (ToastbarManager.getInstance().tryCoalesce(parent, new ToastContentKey(message, null, 0))
+                    || ToastbarManager.getInstance().tryRateLimit(parent)) {
+                return;
+            }
             toastbar = Toastbar.make(parent, message, duration);
+            toastbar.setRepeatBadgeEnabled(repeatBadgeEnabled);
         }
+        toastbar.setPriority(priority);
         toastbar.show();
     }
 
     private void showLoadingMsg(String message, boolean isMask, int duration, int colorMask) {
+        if (parent == null) {
+            return;
+        }
+        if (stopped) {
+            PendingRequest request =
+                    new PendingRequest(PendingRequest.PROGRESS, message, duration, Toastbar.PRIORITY_INFO);
+            request.isMask = isMask;
+            request.colorMask = colorMask;
+            defer(request);
+            return;
+        }
         if (toastbar != null && toastbar.isShownOrQueued() && toastbar.getStatus() == 1) {
             toastbar.setText(message);
             toastbar.setDuration(duration);
         } else {
+            if (ToastbarManager.getInstance().tryCoalesce(parent, new ToastContentKey(message, null, 1))
+                    || ToastbarManager.getInstance().tryRateLimit(parent)) {
+                return;
+            }
             toastbar = Toastbar.make(parent, message, duration);
+            toastbar.setRepeatBadgeEnabled(repeatBadgeEnabled);
         }
         // toastbar = Toastbar.make(parent, message, duration);
         toastbar.setLoading(isMask, colorMask);
@@ -92,10 +331,116 @@ public class ToastbarHelper {
     }
 
     public void dismiss() {
+        if (stopped) {
+            // Nothing held back is shown on start either
+            pendingRequest.set(null);
+        }
         if (toastbar != null && toastbar.isShownOrQueued()) {
             toastbar.dismiss();
         }
     }
 
+    public void postMessage(String message) {
+        postMessage(message, Toastbar.LENGTH_SHORT);
+    }
+
+    public void postMessage(String message, int duration) {
+        post(new PendingRequest(PendingRequest.MESSAGE, message, duration, Toastbar.PRIORITY_INFO));
+    }
+
+    public void postError(String message) {
+        postError(message, Toastbar.LENGTH_SHORT);
+    }
+
+    public void postError(String message, int duration) {
+        post(new PendingRequest(PendingRequest.MESSAGE, message, duration, Toastbar.PRIORITY_ERROR));
+    }
+
+    public void postProgress(String message) {
+        postProgress(message, false, 0);
+    }
+
+    public void postProgress(String message, boolean isMask) {
+        postProgress(message, isMask, ToastbarStyle.getDefault().getMaskColor());
+    }
+
+    public void postProgress(String message, boolean isMask, @ColorInt int colorMask) {
+        postProgress(message, Toastbar.LENGTH_INDEFINITE, isMask, colorMask);
+    }
+
+    public void postProgress(String message, int duration, boolean isMask, @ColorInt int colorMask) {
+        PendingRequest request =
+                new PendingRequest(PendingRequest.PROGRESS, message, duration, Toastbar.PRIORITY_INFO);
+        request.isMask = isMask;
+        request.colorMask = colorMask;
+        post(request);
+    }
+
+    public void postSuccess(String message) {
+        postToastIcon(message, R.drawable.ic_done_toastbar);
+    }
+
+    public void postToastIcon(String message, @DrawableRes int drawableId) {
+        PendingRequest request =
+                new PendingRequest(PendingRequest.ICON, message, Toastbar.LENGTH_SHORT, Toastbar.PRIORITY_SUCCESS);
+        request.drawableId = drawableId;
+        post(request);
+    }
+
+    public void postDismiss() {
+        post(new PendingRequest(PendingRequest.DISMISS, null, 0, Toastbar.PRIORITY_INFO));
+    }
+
+    /**
+     * Replaces whatever was posted earlier in this frame and makes sure the next frame applies it.
+     */
+    private void post(PendingRequest request) {
+        pendingRequest.set(request);
+        ToastbarFrameBatcher.getInstance().schedule(applyPendingRequest);
+    }
+
+    /**
+     * A request posted from any thread, applied on the main thread by the next frame.
+     */
+    private static final class PendingRequest {
+        static final int MESSAGE = 0;
+        static final int PROGRESS = 1;
+        static final int ICON = 2;
+        static final int DISMISS = 3;
+
+        final int type;
+        final String message;
+        final int duration;
+        final int priority;
+        boolean isMask;
+        int colorMask;
+        int drawableId;
+
+        PendingRequest(int type, String message, int duration, int priority) {
+            this.type = type;
+            this.message = message;
+            this.duration = duration;
+            this.priority = priority;
+        }
+
+        void applyTo(ToastbarHelper helper) {
+            switch (type) {
+                case MESSAGE:
+                    helper.showMsg(message, duration, priority);
+                    break;
+                case PROGRESS:
+                    helper.showLoadingMsg(message, isMask, duration, colorMask);
+                    break;
+                case ICON:
+                    helper.showIcon(message, drawableId);
+                    break;
+                case DISMISS:
+                default:
+                    helper.dismiss();
+                    break;
+            }
+        }
+    }
+
 
 }
@@ -0,0 +1,145 @@
+package com.github.tangjw.toastbar;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+/**
+ * A bounded LRU cache of toast icons, keyed by resource id, display density and tint.
+ *
+ * <p>An icon is inflated once and, unless it is a bitmap already, rasterized into a bitmap the size
+ * it is drawn at in the icon box of the {@link ToastbarStyle}. Every drawable handed out shares the
+ * constant state, and with it the bitmap, of the cached one, so repeated icon toasts neither parse
+ * XML nor tessellate paths. Main thread only.
+ */
+final class ToastbarIconCache {
+
+    /**
+     * The tint to ask for to get an icon in its own colors.
+     */
+    static final int NO_TINT = 0;
+
+    private static final int MAX_ENTRIES = 16;
+
+    private static final ToastbarIconCache instance = new ToastbarIconCache();
+
+    @NonNull
+    static ToastbarIconCache getInstance() {
+        return instance;
+    }
+
+    @NonNull
+    private final LruCache<Key, Drawable.ConstantState> cache = new LruCache<>(MAX_ENTRIES);
+
+    private ToastbarIconCache() {
+    }
+
+    /**
+     * Returns a new drawable of the icon {@code id}, sharing its state with all others of the same
+     * icon, density and tint. Must not be mutated.
+     *
+     * @return the icon, or {@code null} if the resource does not exist.
+     */
+    @Nullable
+    Drawable get(@NonNull Context context, @DrawableRes int id, @ColorInt int tint) {
+        Resources resources = context.getResources();
+        ToastbarStyle.Resolved style = ToastbarStyle.getDefault().resolve(context);
+        Key key = new Key(id, style.densityDpi, tint);
+        Drawable.ConstantState state = cache.get(key);
+        if (state == null) {
+            Drawable drawable = ContextCompat.getDrawable(context, id);
+            if (drawable == null) {
+                return null;
+            }
+            state = rasterize(resources, drawable, style, tint);
+            if (state == null) {
+                // Nothing to share, e.g. a drawable without a constant state
+                return drawable;
+            }
+            cache.put(key, state);
+        }
+        return state.newDrawable(resources);
+    }
+
+    void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * Draws {@code drawable} into a bitmap fitting the icon box with its aspect ratio kept, like
+     * it is drawn in place of the spinner.
+     */
+    @Nullable
+    private static Drawable.ConstantState rasterize(@NonNull Resources resources, @NonNull Drawable drawable,
+                                                    @NonNull ToastbarStyle.Resolved style, @ColorInt int tint) {
+        if (drawable instanceof BitmapDrawable && tint == NO_TINT) {
+            return drawable.getConstantState();
+        }
+        int boxWidth = style.iconWidth;
+        int boxHeight = style.iconHeight - style.iconPaddingTop;
+        int width = boxWidth;
+        int height = boxHeight;
+        int intrinsicWidth = drawable.getIntrinsicWidth();
+        int intrinsicHeight = drawable.getIntrinsicHeight();
+        if (intrinsicWidth > 0 && intrinsicHeight > 0) {
+            float intrinsicAspect = (float) intrinsicWidth / intrinsicHeight;
+            if (intrinsicAspect > (float) boxWidth / boxHeight) {
+                height = (int) (boxWidth / intrinsicAspect);
+            } else {
+                width = (int) (boxHeight * intrinsicAspect);
+            }
+        }
+        if (width <= 0 || height <= 0) {
+            return drawable.getConstantState();
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        drawable = drawable.mutate();
+        if (tint != NO_TINT) {
+            drawable.setTint(tint);
+        }
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(new Canvas(bitmap));
+        return new BitmapDrawable(resources, bitmap).getConstantState();
+    }
+
+    private static final class Key {
+        private final int id;
+        private final int densityDpi;
+        private final int tint;
+
+        Key(int id, int densityDpi, int tint) {
+            this.id = id;
+            this.densityDpi = densityDpi;
+            this.tint = tint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return id == other.id && densityDpi == other.densityDpi && tint == other.tint;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = id;
+            result = 31 * result + densityDpi;
+            return 31 * result + tint;
+        }
+    }
+}
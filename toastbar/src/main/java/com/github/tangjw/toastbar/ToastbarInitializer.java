@@ -0,0 +1,45 @@
+package com.github.tangjw.toastbar;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.startup.Initializer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Calls {@link Toastbar#prewarm(Context)} at app startup through androidx.startup, so the first
+ * toast after a cold start is as fast as later ones. Opt in by adding the App Startup library to
+ * the app and this initializer to its manifest:
+ *
+ * <pre>{@code
+ * <provider
+ *     android:name="androidx.startup.InitializationProvider"
+ *     android:authorities="${applicationId}.androidx-startup"
+ *     android:exported="false"
+ *     tools:node="merge">
+ *     <meta-data
+ *         android:name="com.github.tangjw.toastbar.ToastbarInitializer"
+ *         android:value="androidx.startup" />
+ * </provider>
+ * }</pre>
+ *
+ * <p>With only the application context no hierarchy can be pooled for a window; call {@link
+ * Toastbar#prewarm(Context)} with an activity for that.
+ */
+public final class ToastbarInitializer implements Initializer<ToastbarManager> {
+
+    @NonNull
+    @Override
+    public ToastbarManager create(@NonNull Context context) {
+        Toastbar.prewarm(context);
+        return ToastbarManager.getInstance();
+    }
+
+    @NonNull
+    @Override
+    public List<Class<? extends Initializer<?>>> dependencies() {
+        return Collections.emptyList();
+    }
+}
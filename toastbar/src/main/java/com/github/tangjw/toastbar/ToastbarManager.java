@@ -2,111 +2,362 @@ package com.github.tangjw.toastbar;
 
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
+import android.os.SystemClock;
+import android.view.View;
 
+import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.github.tangjw.toastbar.core.Clock;
+import com.github.tangjw.toastbar.core.Scheduler;
+import com.github.tangjw.toastbar.core.ToastCoordinator;
+import com.github.tangjw.toastbar.core.ToastMetrics;
+import com.github.tangjw.toastbar.core.ToastRecord;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
 
+/**
+ * Decides which toast is shown and for how long, separately for every window.
+ *
+ * <p>The queueing, timeout and coalescing logic lives in the Android-free {@link ToastCoordinator}
+ * of the {@code toastbar-core} module; this class keeps one per window, keyed by the token of
+ * the window a toast is shown in, see {@link #getWindowKey(View)}. Toasts in different activities,
+ * or in windows on other displays, thus never wait behind or replace one another. All coordinators run on the main thread with a
+ * shared main looper {@link Handler} as their {@link Scheduler} and {@link
+ * SystemClock#uptimeMillis()} as their {@link Clock}, and record into one {@link ToastMetrics}.
+ * Their state, like the set of coordinators, is owned by the main thread and never locked. Calls
+ * made on the main thread run immediately; calls from other threads are drained by the main thread
+ * in order. {@link #isCurrent} and {@link #isCurrentOrNext} can be called from any thread and
+ * answer {@code false} for a window nothing was shown in.
+ */
 public class ToastbarManager {
 
-    static final int MSG_TIMEOUT = 0;
+    /**
+     * When the queue is full, drop the record that has been waiting longest.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = ToastCoordinator.OVERFLOW_DROP_OLDEST;
+    /**
+     * When the queue is full, drop the record with the lowest priority, or reject the new one if it
+     * has the lowest priority of all.
+     */
+    public static final int OVERFLOW_DROP_LOWEST = ToastCoordinator.OVERFLOW_DROP_LOWEST;
+    /**
+     * When the queue is full, reject the new record.
+     */
+    public static final int OVERFLOW_REJECT = ToastCoordinator.OVERFLOW_REJECT;
 
-    private static final int SHORT_DURATION_MS = 1500;
-    private static final int LONG_DURATION_MS = 2750;
+    /**
+     * Annotation for the policies applied when a record is shown while the queue is full.
+     */
+    @IntDef({OVERFLOW_DROP_OLDEST, OVERFLOW_DROP_LOWEST, OVERFLOW_REJECT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface OverflowPolicy {
+    }
 
-    private static ToastbarManager toastbarManager;
+    /**
+     * When over the rate limit, drop the new toast.
+     */
+    public static final int RATE_LIMIT_DROP = ToastCoordinator.RATE_LIMIT_DROP;
+    /**
+     * When over the rate limit, keep the current toast up for longer instead of showing the new
+     * one, or drop the new one if nothing is shown.
+     */
+    public static final int RATE_LIMIT_MERGE = ToastCoordinator.RATE_LIMIT_MERGE;
+    /**
+     * When over the rate limit, hold the new toast back until the limit lets it through. Only the
+     * latest toast held back is kept.
+     */
+    public static final int RATE_LIMIT_DEFER = ToastCoordinator.RATE_LIMIT_DEFER;
 
-    static ToastbarManager getInstance() {
-        if (toastbarManager == null) {
-            toastbarManager = new ToastbarManager();
-        }
+    /**
+     * Annotation for what happens to toasts shown over the rate limit.
+     */
+    @IntDef({RATE_LIMIT_DROP, RATE_LIMIT_MERGE, RATE_LIMIT_DEFER})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface RateLimitPolicy {
+    }
+
+    private static final ToastbarManager toastbarManager = new ToastbarManager();
+
+    @NonNull
+    public static ToastbarManager getInstance() {
         return toastbarManager;
     }
 
     @NonNull
-    private final Object lock;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    @NonNull
+    private final Scheduler scheduler = new MainThreadScheduler(handler);
+    @NonNull
+    private final ToastMetrics metrics = new ToastMetrics();
+
+    /**
+     * The coordinator of every window, keyed weakly by its token. Nothing a coordinator holds
+     * keeps its window alive, so a window's queue goes away with it. Copied on write by the main
+     * thread only, when a coordinator is added and those of gone windows are pruned, so that any
+     * thread can look one up without a lock.
+     */
     @NonNull
-    private final Handler handler;
+    private volatile WindowCoordinator[] coordinators = new WindowCoordinator[0];
+
+    // Settings of all coordinators, main thread only
+    private int queueCapacity = 1;
+    private int overflowPolicy = OVERFLOW_DROP_OLDEST;
+    private long coalescingWindowMs;
+    private double rateLimitPermitsPerSecond;
+    private int rateLimitBurst;
+    private int rateLimitPolicy = RATE_LIMIT_DROP;
+
+    private ToastbarManager() {
+    }
+
+    interface Callback extends ToastCoordinator.Callback {
 
+        /**
+         * Returns the {@link #getWindowKey(View) key} of the window the toast was enqueued in, or
+         * {@code null} if it never was. Must not change while the toast is queued or shown.
+         */
+        @Nullable
+        Object getWindowKey();
+    }
+
+    /**
+     * Returns what identifies the window {@code view} is in: the token of its application window,
+     * which the panels over it share, or {@code null} while it is not attached. Toasts are keyed by
+     * it when they are enqueued and looked up by it, so both always agree. Main thread only, as it
+     * reads the view tree.
+     */
     @Nullable
-    private SnackbarRecord currentSnackbar;
+    static Object getWindowKey(@NonNull View view) {
+        return view.getApplicationWindowToken();
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * Returns the coordinator of the window identified by {@code windowKey}, or {@code null} if
+     * nothing was shown in it yet. Any thread.
+     */
     @Nullable
-    private SnackbarRecord nextSnackbar;
+    private ToastCoordinator findCoordinator(@Nullable Object windowKey) {
+        if (windowKey == null) {
+            return null;
+        }
+        for (WindowCoordinator coordinator : coordinators) {
+            if (coordinator.windowKey.get() == windowKey) {
+                return coordinator.coordinator;
+            }
+        }
+        return null;
+    }
 
     @Nullable
-    public SnackbarRecord getCurrentSnackbar() {
-        return currentSnackbar;
+    private ToastCoordinator findCoordinator(@NonNull Callback callback) {
+        return findCoordinator(callback.getWindowKey());
     }
 
-    private ToastbarManager() {
-        lock = new Object();
-        handler =
-                new Handler(
-                        Looper.getMainLooper(),
-                        new Handler.Callback() {
-                            @Override
-                            public boolean handleMessage(@NonNull Message message) {
-                                switch (message.what) {
-                                    case MSG_TIMEOUT:
-                                        handleTimeout((SnackbarRecord) message.obj);
-                                        return true;
-                                    default:
-                                        return false;
-                                }
-                            }
-                        });
+    @Nullable
+    private ToastCoordinator findCoordinator(@NonNull View view) {
+        return findCoordinator(getWindowKey(view));
+    }
+
+    /**
+     * Returns the coordinator of the window identified by {@code windowKey}, making it on first
+     * use. Main thread only.
+     */
+    @NonNull
+    private ToastCoordinator getCoordinator(@NonNull Object windowKey) {
+        ToastCoordinator coordinator = findCoordinator(windowKey);
+        if (coordinator == null) {
+            coordinator = new ToastCoordinator(SystemClock::uptimeMillis, scheduler, metrics);
+            coordinator.setQueueCapacity(queueCapacity);
+            coordinator.setOverflowPolicy(overflowPolicy);
+            coordinator.setCoalescingWindow(coalescingWindowMs);
+            coordinator.setRateLimit(rateLimitPermitsPerSecond, rateLimitBurst, rateLimitPolicy);
+            WindowCoordinator[] current = coordinators;
+            int live = 0;
+            for (WindowCoordinator window : current) {
+                if (window.windowKey.get() != null) {
+                    live++;
+                }
+            }
+            WindowCoordinator[] next = new WindowCoordinator[live + 1];
+            int i = 0;
+            for (WindowCoordinator window : current) {
+                if (window.windowKey.get() != null) {
+                    next[i++] = window;
+                }
+            }
+            next[i] = new WindowCoordinator(windowKey, coordinator);
+            coordinators = next;
+        }
+        return coordinator;
+    }
+
+    /**
+     * Returns the counters and latency histograms of all toasts in all windows. Recording them is
+     * lock-free and allocation free; take a {@link ToastMetrics#snapshot()} from any thread to
+     * report them.
+     */
+    @NonNull
+    public ToastMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the record being shown in the window of {@code view}. Main thread only.
+     */
+    @Nullable
+    public ToastRecord getCurrentSnackbar(@NonNull View view) {
+        ToastCoordinator coordinator = findCoordinator(view);
+        return coordinator != null ? coordinator.getCurrentRecord() : null;
     }
 
-    interface Callback {
+    /**
+     * Returns the record being shown in any window. Main thread only.
+     *
+     * @deprecated Every window shows its own toast, use {@link #getCurrentSnackbar(View)}.
+     */
+    @Deprecated
+    @Nullable
+    public ToastRecord getCurrentSnackbar() {
+        for (WindowCoordinator coordinator : coordinators) {
+            ToastRecord record = coordinator.coordinator.getCurrentRecord();
+            if (record != null) {
+                return record;
+            }
+        }
+        return null;
+    }
 
+    /**
+     * Sets how many records may wait behind the current one of each window. Defaults to 1.
+     */
+    public void setQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + capacity);
+        }
+        if (!isMainThread()) {
+            handler.post(() -> setQueueCapacity(capacity));
+            return;
+        }
+        queueCapacity = capacity;
+        for (WindowCoordinator coordinator : coordinators) {
+            coordinator.coordinator.setQueueCapacity(capacity);
+        }
+    }
 
+    /**
+     * Sets what happens when a record is shown while the queue of its window is full. Defaults to
+     * {@link #OVERFLOW_DROP_OLDEST}.
+     */
+    public void setOverflowPolicy(@OverflowPolicy int policy) {
+        if (!isMainThread()) {
+            handler.post(() -> setOverflowPolicy(policy));
+            return;
+        }
+        overflowPolicy = policy;
+        for (WindowCoordinator coordinator : coordinators) {
+            coordinator.coordinator.setOverflowPolicy(policy);
+        }
+    }
+
+    /**
+     * Enables coalescing: a toast whose content equals that of the current or a queued toast last
+     * posted at most {@code windowMs} ago is merged into it instead of being shown. The merge
+     * restarts the timeout of a current toast and updates its repeat count in place. Set to 0, the
+     * default, to disable.
+     */
+    public void setCoalescingWindow(long windowMs) {
+        if (!isMainThread()) {
+            handler.post(() -> setCoalescingWindow(windowMs));
+            return;
+        }
+        coalescingWindowMs = windowMs;
+        for (WindowCoordinator coordinator : coordinators) {
+            coordinator.coordinator.setCoalescingWindow(windowMs);
+        }
+    }
+
+    /**
+     * Limits new toasts in each window to {@code permitsPerSecond} on average with bursts of up to
+     * {@code burst}, so a storm of toasts costs next to nothing. See {@link ToastMetrics.Snapshot}
+     * for how many were dropped, merged and deferred. Set {@code permitsPerSecond} to 0, the
+     * default, to disable.
+     */
+    public void setRateLimit(double permitsPerSecond, int burst, @RateLimitPolicy int policy) {
+        if (permitsPerSecond > 0 && burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1: " + burst);
+        }
+        if (!isMainThread()) {
+            handler.post(() -> setRateLimit(permitsPerSecond, burst, policy));
+            return;
+        }
+        rateLimitPermitsPerSecond = permitsPerSecond;
+        rateLimitBurst = burst;
+        rateLimitPolicy = policy;
+        for (WindowCoordinator coordinator : coordinators) {
+            coordinator.coordinator.setRateLimit(permitsPerSecond, burst, policy);
+        }
+    }
 
-        void show();
+    /**
+     * Drops or merges a toast over the rate limit before it is built. Lets callers skip building a
+     * toast that would not be shown anyway.
+     *
+     * @return whether the toast was limited and nothing needs to be shown.
+     */
+    boolean tryRateLimit(@NonNull View view) {
+        // A window nothing was shown in yet has a full bucket
+        ToastCoordinator coordinator = findCoordinator(view);
+        return coordinator != null && coordinator.tryRateLimit();
+    }
 
-        void dismiss(int event);
+    /**
+     * Merges a toast with the given content into an equal one that is shown or queued, if
+     * coalescing is enabled. Lets callers skip building a toast that would be merged anyway.
+     * Off the main thread nothing is merged.
+     *
+     * @return whether the content was merged and nothing needs to be shown.
+     */
+    boolean tryCoalesce(@NonNull View view, @Nullable Object contentKey) {
+        ToastCoordinator coordinator = findCoordinator(view);
+        return coordinator != null && coordinator.tryCoalesce(contentKey);
     }
 
     public void show(int duration, Callback callback) {
-        synchronized (lock) {
-            if (isCurrentSnackbarLocked(callback)) {
-                // Means that the callback is already in the queue. We'll just update the duration
-                currentSnackbar.duration = duration;
-
-                // If this is the Snackbar currently being shown, call re-schedule it's
-                // timeout
-                handler.removeCallbacksAndMessages(currentSnackbar);
-                scheduleTimeoutLocked(currentSnackbar);
-                return;
-            } else if (isNextSnackbarLocked(callback)) {
-                // We'll just update the duration
-                nextSnackbar.duration = duration;
-            } else {
-                // Else, we need to create a new record and queue it
-                nextSnackbar = new SnackbarRecord(duration, callback);
-            }
+        show(duration, Toastbar.PRIORITY_INFO, null, callback);
+    }
 
-            if (currentSnackbar != null
-                    && cancelSnackbarLocked(currentSnackbar, Toastbar.Callback.DISMISS_EVENT_CONSECUTIVE)) {
-                // If we currently have a Snackbar, try and cancel it and wait in line
-                return;
-            } else {
-                // Clear out the current snackbar
-                currentSnackbar = null;
-                // Otherwise, just show it now
-                showNextSnackbarLocked();
+    public void show(int duration, @Toastbar.Priority int priority, @Nullable Object contentKey,
+                     Callback callback) {
+        ToastCoordinator coordinator = findCoordinator(callback);
+        if (coordinator != null) {
+            coordinator.show(duration, priority, contentKey, callback);
+        } else if (isMainThread()) {
+            Object windowKey = callback.getWindowKey();
+            if (windowKey == null) {
+                throw new IllegalStateException("The toast has no window to be shown in");
             }
+            getCoordinator(windowKey).show(duration, priority, contentKey, callback);
+        } else {
+            // Only the main thread adds coordinators; calls for the window made meanwhile follow
+            handler.post(() -> show(duration, priority, contentKey, callback));
         }
     }
 
     public void dismiss(Callback callback, int event) {
-        synchronized (lock) {
-            if (isCurrentSnackbarLocked(callback)) {
-                cancelSnackbarLocked(currentSnackbar, event);
-            } else if (isNextSnackbarLocked(callback)) {
-                cancelSnackbarLocked(nextSnackbar, event);
-            }
+        ToastCoordinator coordinator = findCoordinator(callback);
+        if (coordinator != null) {
+            coordinator.dismiss(callback, event);
+        } else if (!isMainThread()) {
+            // Its show may still be on the way to the main thread
+            handler.post(() -> dismiss(callback, event));
         }
     }
 
@@ -115,14 +366,9 @@ public class ToastbarManager {
      * finished.
      */
     public void onDismissed(Callback callback) {
-        synchronized (lock) {
-            if (isCurrentSnackbarLocked(callback)) {
-                // If the callback is from a Snackbar currently show, remove it and show a new one
-                currentSnackbar = null;
-                if (nextSnackbar != null) {
-                    showNextSnackbarLocked();
-                }
-            }
+        ToastCoordinator coordinator = findCoordinator(callback);
+        if (coordinator != null) {
+            coordinator.onDismissed(callback);
         }
     }
 
@@ -131,114 +377,88 @@ public class ToastbarManager {
      * finished.
      */
     public void onShown(Callback callback) {
-        synchronized (lock) {
-            if (isCurrentSnackbarLocked(callback)) {
-                scheduleTimeoutLocked(currentSnackbar);
-            }
+        ToastCoordinator coordinator = findCoordinator(callback);
+        if (coordinator != null) {
+            coordinator.onShown(callback);
         }
     }
 
     public void pauseTimeout(Callback callback) {
-        synchronized (lock) {
-            if (isCurrentSnackbarLocked(callback) && !currentSnackbar.paused) {
-                currentSnackbar.paused = true;
-                handler.removeCallbacksAndMessages(currentSnackbar);
-            }
+        ToastCoordinator coordinator = findCoordinator(callback);
+        if (coordinator != null) {
+            coordinator.pauseTimeout(callback);
+        } else if (!isMainThread()) {
+            handler.post(() -> pauseTimeout(callback));
         }
     }
 
     public void restoreTimeoutIfPaused(Callback callback) {
-        synchronized (lock) {
-            if (isCurrentSnackbarLocked(callback) && currentSnackbar.paused) {
-                currentSnackbar.paused = false;
-                scheduleTimeoutLocked(currentSnackbar);
-            }
+        ToastCoordinator coordinator = findCoordinator(callback);
+        if (coordinator != null) {
+            coordinator.restoreTimeoutIfPaused(callback);
+        } else if (!isMainThread()) {
+            handler.post(() -> restoreTimeoutIfPaused(callback));
         }
     }
 
     public boolean isCurrent(Callback callback) {
-        synchronized (lock) {
-            return isCurrentSnackbarLocked(callback);
+        if (callback == null) {
+            return false;
         }
+        ToastCoordinator coordinator = findCoordinator(callback);
+        return coordinator != null && coordinator.isCurrent(callback);
     }
 
     public boolean isCurrentOrNext(Callback callback) {
-        synchronized (lock) {
-            return isCurrentSnackbarLocked(callback) || isNextSnackbarLocked(callback);
+        if (callback == null) {
+            return false;
         }
+        ToastCoordinator coordinator = findCoordinator(callback);
+        return coordinator != null && coordinator.isCurrentOrNext(callback);
     }
 
-    static class SnackbarRecord {
+    private static final class WindowCoordinator {
         @NonNull
-        final WeakReference<Callback> callback;
-        int duration;
-        boolean paused;
-
-        SnackbarRecord(int duration, Callback callback) {
-            this.callback = new WeakReference<>(callback);
-            this.duration = duration;
-        }
+        final WeakReference<Object> windowKey;
+        @NonNull
+        final ToastCoordinator coordinator;
 
-        boolean isSnackbar(@Nullable Callback callback) {
-            return callback != null && this.callback.get() == callback;
+        WindowCoordinator(@NonNull Object windowKey, @NonNull ToastCoordinator coordinator) {
+            this.windowKey = new WeakReference<>(windowKey);
+            this.coordinator = coordinator;
         }
     }
 
-    private void showNextSnackbarLocked() {
-        if (nextSnackbar != null) {
-            currentSnackbar = nextSnackbar;
-            nextSnackbar = null;
+    /**
+     * Confines the {@link ToastCoordinator}s to the main thread. Shared by all of them; each only
+     * ever cancels its own tasks.
+     */
+    private static final class MainThreadScheduler implements Scheduler {
+        @NonNull
+        private final Handler handler;
 
-            final Callback callback = currentSnackbar.callback.get();
-            if (callback != null) {
-                callback.show();
-            } else {
-                // The callback doesn't exist any more, clear out the Snackbar
-                currentSnackbar = null;
-            }
+        MainThreadScheduler(@NonNull Handler handler) {
+            this.handler = handler;
         }
-    }
 
-    private boolean cancelSnackbarLocked(@NonNull SnackbarRecord record, int event) {
-        final Callback callback = record.callback.get();
-        if (callback != null) {
-            // Make sure we remove any timeouts for the SnackbarRecord
-            handler.removeCallbacksAndMessages(record);
-            callback.dismiss(event);
-            return true;
+        @Override
+        public boolean isOwnerThread() {
+            return Looper.myLooper() == Looper.getMainLooper();
         }
-        return false;
-    }
-
-    private boolean isCurrentSnackbarLocked(Callback callback) {
-        return currentSnackbar != null && currentSnackbar.isSnackbar(callback);
-    }
-
-    private boolean isNextSnackbarLocked(Callback callback) {
-        return nextSnackbar != null && nextSnackbar.isSnackbar(callback);
-    }
 
-    private void scheduleTimeoutLocked(@NonNull SnackbarRecord r) {
-        if (r.duration == Toastbar.LENGTH_INDEFINITE) {
-            // If we're set to indefinite, we don't want to set a timeout
-            return;
+        @Override
+        public void execute(@NonNull Runnable task) {
+            handler.post(task);
         }
 
-        int durationMs = LONG_DURATION_MS;
-        if (r.duration > 0) {
-            durationMs = r.duration;
-        } else if (r.duration == Toastbar.LENGTH_SHORT) {
-            durationMs = SHORT_DURATION_MS;
+        @Override
+        public void schedule(@NonNull Runnable task, long delayMs) {
+            handler.postDelayed(task, delayMs);
         }
-        handler.removeCallbacksAndMessages(r);
-        handler.sendMessageDelayed(Message.obtain(handler, MSG_TIMEOUT, r), durationMs);
-    }
 
-    void handleTimeout(@NonNull SnackbarRecord record) {
-        synchronized (lock) {
-            if (currentSnackbar == record || nextSnackbar == record) {
-                cancelSnackbarLocked(record, Toastbar.Callback.DISMISS_EVENT_TIMEOUT);
-            }
+        @Override
+        public void cancel(@NonNull Runnable task) {
+            handler.removeCallbacks(task);
         }
     }
 }
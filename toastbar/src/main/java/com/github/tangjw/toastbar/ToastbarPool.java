@@ -0,0 +1,172 @@
+package com.github.tangjw.toastbar;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.view.ViewGroup;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycles the view hierarchies of hidden toasts so that the next toast shown in the same window
+ * does not have to inflate its {@link ToastBaseLayout} and content again.
+ *
+ * <p>There is one pool per host window; it is stored as a tag on the target parent returned by
+ * {@code Toastbar.findSuitableParent}, so it lives and dies with that window and never outlives
+ * its {@link Context}. Hierarchies are kept per {@link ContentType}, up to {@link
+ * #MAX_POOL_SIZE_PER_TYPE} each. The pool also keeps the window's {@link ToastWindowHost}, so its
+ * panel is added once and reused by every toast shown in {@link Toastbar#DISPLAY_MODE_WINDOW}. All
+ * pools are emptied, and idle panels removed, when the system asks the application to trim memory.
+ * Pools are only ever touched from the main thread.
+ */
+final class ToastbarPool {
+
+    static final int TYPE_NONE = -1;
+    static final int TYPE_PLAIN = 0;
+    static final int TYPE_LOADING = 1;
+    static final int TYPE_ICON = 2;
+    static final int TYPE_MASKED = 3;
+
+    /**
+     * Annotation for the kinds of content a pooled hierarchy was last used for.
+     */
+    @IntDef({TYPE_NONE, TYPE_PLAIN, TYPE_LOADING, TYPE_ICON, TYPE_MASKED})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface ContentType {
+    }
+
+    private static final int TYPE_COUNT = 4;
+    private static final int MAX_POOL_SIZE_PER_TYPE = 2;
+
+    private static final List<WeakReference<ToastbarPool>> pools = new ArrayList<>();
+    private static boolean trimCallbacksRegistered;
+
+    private final ToastBaseLayout[][] pooled = new ToastBaseLayout[TYPE_COUNT][MAX_POOL_SIZE_PER_TYPE];
+    private final int[] sizes = new int[TYPE_COUNT];
+    @Nullable
+    private ToastWindowHost windowHost;
+
+    private ToastbarPool() {
+    }
+
+    /**
+     * Returns the pool for the window hosting {@code targetParent}, creating it on first use.
+     */
+    @NonNull
+    static ToastbarPool get(@NonNull ViewGroup targetParent) {
+        Object tag = targetParent.getTag(R.id.toastbar_pool);
+        if (tag instanceof ToastbarPool) {
+            return (ToastbarPool) tag;
+        }
+        ToastbarPool pool = new ToastbarPool();
+        targetParent.setTag(R.id.toastbar_pool, pool);
+        registerTrimCallbacks(targetParent.getContext());
+        pools.add(new WeakReference<>(pool));
+        return pool;
+    }
+
+    /**
+     * Takes a hierarchy last used for {@code type} out of the pool.
+     *
+     * @return the pooled layout, or {@code null} if there is none and a new one must be built.
+     */
+    @Nullable
+    ToastBaseLayout acquire(@ContentType int type) {
+        if (type == TYPE_NONE || sizes[type] == 0) {
+            return null;
+        }
+        int index = --sizes[type];
+        ToastBaseLayout layout = pooled[type][index];
+        pooled[type][index] = null;
+        return layout;
+    }
+
+    /**
+     * Hands a detached hierarchy back to the pool.
+     *
+     * @return {@code true} if the layout was pooled, {@code false} if the pool for {@code type} is
+     * full and the caller keeps ownership.
+     */
+    boolean release(@ContentType int type, @NonNull ToastBaseLayout layout) {
+        if (type == TYPE_NONE || layout.getParent() != null || sizes[type] == MAX_POOL_SIZE_PER_TYPE) {
+            return false;
+        }
+        layout.recycle();
+        pooled[type][sizes[type]++] = layout;
+        return true;
+    }
+
+    /**
+     * Returns the host to show a toast over the window of {@code targetParent} in: the window's own,
+     * or, while that one still holds a toast, a new one removed again once its toast hides.
+     */
+    @NonNull
+    ToastWindowHost obtainWindowHost(@NonNull ViewGroup targetParent) {
+        if (windowHost == null) {
+            windowHost = new ToastWindowHost(targetParent, true);
+        }
+        return windowHost.isIdle() ? windowHost : new ToastWindowHost(targetParent, false);
+    }
+
+    void clear() {
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            for (int i = 0; i < sizes[type]; i++) {
+                pooled[type][i] = null;
+            }
+            sizes[type] = 0;
+        }
+        if (windowHost != null) {
+            windowHost.release();
+            windowHost = null;
+        }
+    }
+
+    static void trimAll(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+        ToastbarTextCache.getInstance().clear();
+        ToastbarIconCache.getInstance().clear();
+        for (int i = pools.size() - 1; i >= 0; i--) {
+            ToastbarPool pool = pools.get(i).get();
+            if (pool == null) {
+                pools.remove(i);
+            } else {
+                pool.clear();
+            }
+        }
+    }
+
+    private static void registerTrimCallbacks(@NonNull Context context) {
+        if (trimCallbacksRegistered) {
+            return;
+        }
+        trimCallbacksRegistered = true;
+        context.getApplicationContext().registerComponentCallbacks(
+                new ComponentCallbacks2() {
+                    @Override
+                    public void onTrimMemory(int level) {
+                        trimAll(level);
+                    }
+
+                    @Override
+                    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+                        // Pooled hierarchies are re-bound on every use.
+                    }
+
+                    @Override
+                    public void onLowMemory() {
+                        trimAll(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                    }
+                });
+    }
+}
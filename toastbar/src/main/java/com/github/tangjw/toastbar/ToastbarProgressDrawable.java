@@ -0,0 +1,122 @@
+package com.github.tangjw.toastbar;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The determinate progress indicator of {@link Toastbar#makeProgress}: a faint ring with an arc
+ * over it whose sweep follows the level, 0 to 10000 like any level drawable.
+ *
+ * <p>Shown in place of the spinner. A new level only invalidates the drawable's bounds, so neither
+ * the message nor the toast is measured or laid out again.
+ */
+final class ToastbarProgressDrawable extends Drawable implements Animatable {
+
+    private static final int MAX_LEVEL = 10000;
+    // Of the ring's diameter
+    private static final float STROKE_FRACTION = 0.1f;
+    private static final int TRACK_ALPHA = 0x40;
+
+    @NonNull
+    private final Paint trackPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    @NonNull
+    private final Paint arcPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    @NonNull
+    private final RectF ring = new RectF();
+    private final int colorAlpha;
+    private int alpha = 255;
+
+    ToastbarProgressDrawable(@ColorInt int color) {
+        trackPaint.setStyle(Paint.Style.STROKE);
+        arcPaint.setStyle(Paint.Style.STROKE);
+        arcPaint.setStrokeCap(Paint.Cap.ROUND);
+        trackPaint.setColor(color);
+        arcPaint.setColor(color);
+        colorAlpha = Color.alpha(color);
+        updateAlpha();
+    }
+
+    @Override
+    protected void onBoundsChange(@NonNull Rect bounds) {
+        float diameter = Math.min(bounds.width(), bounds.height());
+        float stroke = diameter * STROKE_FRACTION;
+        trackPaint.setStrokeWidth(stroke);
+        arcPaint.setStrokeWidth(stroke);
+        float radius = (diameter - stroke) / 2;
+        ring.set(bounds.exactCenterX() - radius, bounds.exactCenterY() - radius,
+                bounds.exactCenterX() + radius, bounds.exactCenterY() + radius);
+    }
+
+    @Override
+    protected boolean onLevelChange(int level) {
+        invalidateSelf();
+        return true;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        canvas.drawOval(ring, trackPaint);
+        float sweep = 360f * getLevel() / MAX_LEVEL;
+        if (sweep > 0) {
+            canvas.drawArc(ring, -90, sweep, false, arcPaint);
+        }
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (this.alpha != alpha) {
+            this.alpha = alpha;
+            updateAlpha();
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return alpha;
+    }
+
+    private void updateAlpha() {
+        int arcAlpha = colorAlpha * alpha / 255;
+        trackPaint.setAlpha(TRACK_ALPHA * arcAlpha / 255);
+        arcPaint.setAlpha(arcAlpha);
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        trackPaint.setColorFilter(colorFilter);
+        arcPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    // Animatable only so that ProgressBar and ToastContentView leave the level alone instead of
+    // cycling it like they do for a spinner; the level is set by the toast
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean isRunning() {
+        return false;
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.tangjw.toastbar;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * The scrim behind a masked toast: its color over the whole of its bounds, faded through its alpha
+ * like a {@link ColorDrawable}.
+ *
+ * <p>From Android 10 the color is recorded once into a {@link RenderNode} of its own, and only
+ * recorded again when the color or the size changes. A fade only sets the alpha of that node, and
+ * a spinner animating on top records nothing but itself, so no frame of a loading toast records
+ * the full screen scrim again. Below Android 10 the color is drawn like a color background.
+ */
+final class ToastbarScrimDrawable extends Drawable {
+
+    @NonNull
+    private final Paint paint = new Paint();
+    @Nullable
+    private final RecordedScrim recorded;
+    @ColorInt
+    private int color = Color.TRANSPARENT;
+    private int alpha = 255;
+
+    ToastbarScrimDrawable() {
+        recorded = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? new RecordedScrim() : null;
+    }
+
+    void setColor(@ColorInt int color) {
+        if (this.color != color) {
+            this.color = color;
+            if (recorded != null) {
+                recorded.invalidate();
+            }
+            invalidateSelf();
+        }
+    }
+
+    @ColorInt
+    int getColor() {
+        return color;
+    }
+
+    @Override
+    protected void onBoundsChange(@NonNull Rect bounds) {
+        if (recorded != null) {
+            recorded.invalidate();
+        }
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        if (getDrawnAlpha() == 0) {
+            return;
+        }
+        if (recorded != null && canvas.isHardwareAccelerated()) {
+            recorded.draw(canvas, getBounds(), color, alpha, paint.getColorFilter());
+            return;
+        }
+        paint.setColor(color);
+        paint.setAlpha(getDrawnAlpha());
+        canvas.drawRect(getBounds(), paint);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (this.alpha != alpha) {
+            this.alpha = alpha;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return alpha;
+    }
+
+    private int getDrawnAlpha() {
+        return Color.alpha(color) * alpha / 255;
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        if (recorded != null) {
+            recorded.invalidate();
+        }
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        if (paint.getColorFilter() != null) {
+            return PixelFormat.TRANSLUCENT;
+        }
+        int drawnAlpha = getDrawnAlpha();
+        return drawnAlpha == 255 ? PixelFormat.OPAQUE
+                : drawnAlpha == 0 ? PixelFormat.TRANSPARENT : PixelFormat.TRANSLUCENT;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private static final class RecordedScrim {
+        @NonNull
+        private final RenderNode node = new RenderNode("ToastbarScrim");
+        private boolean valid;
+
+        RecordedScrim() {
+            // A single rectangle, so the alpha can be applied to it without a layer
+            node.setHasOverlappingRendering(false);
+        }
+
+        void invalidate() {
+            valid = false;
+        }
+
+        void draw(@NonNull Canvas canvas, @NonNull Rect bounds, @ColorInt int color, int alpha,
+                  @Nullable ColorFilter colorFilter) {
+            if (!valid) {
+                node.setPosition(bounds);
+                Paint paint = new Paint();
+                paint.setColor(color);
+                paint.setColorFilter(colorFilter);
+                RecordingCanvas recording = node.beginRecording();
+                try {
+                    recording.drawRect(0, 0, bounds.width(), bounds.height(), paint);
+                } finally {
+                    node.endRecording();
+                }
+                valid = true;
+            }
+            node.setAlpha(alpha / 255f);
+            canvas.drawRenderNode(node);
+        }
+    }
+}
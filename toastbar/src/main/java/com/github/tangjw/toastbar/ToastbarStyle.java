@@ -0,0 +1,247 @@
+package com.github.tangjw.toastbar;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.util.DisplayMetrics;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The look of toasts: colors, corner radius and text size. Immutable; build one with {@link
+ * Builder} and make it the default with {@link #setDefault}.
+ *
+ * <p>Sizes are given in dp and converted to pixels once per configuration, not once per toast. All
+ * content cards of a configuration share the constant state of one background drawable.
+ */
+public final class ToastbarStyle {
+
+    // Fixed geometry of the content card, in dp
+    private static final float ICON_WIDTH_DP = 112;
+    private static final float ICON_HEIGHT_DP = 62;
+    private static final float ICON_PADDING_TOP_DP = 20;
+    private static final float TEXT_PADDING_HORIZONTAL_DP = 14;
+    private static final float TEXT_MIN_HEIGHT_DP = 50;
+
+    @NonNull
+    private static ToastbarStyle defaultStyle = new Builder().build();
+
+    /**
+     * Returns the style toasts are made with.
+     */
+    @NonNull
+    public static ToastbarStyle getDefault() {
+        return defaultStyle;
+    }
+
+    /**
+     * Sets the style toasts made from now on use. Main thread only.
+     */
+    public static void setDefault(@NonNull ToastbarStyle style) {
+        defaultStyle = style;
+    }
+
+    @ColorInt
+    private final int backgroundColor;
+    @ColorInt
+    private final int textColor;
+    @ColorInt
+    private final int iconTint;
+    @ColorInt
+    private final int maskColor;
+    private final float cornerRadiusDp;
+    private final float textSizeDp;
+
+    // Resolved for the last configuration asked for; main thread only
+    @Nullable
+    private Resolved resolved;
+
+    private ToastbarStyle(@NonNull Builder builder) {
+        backgroundColor = builder.backgroundColor;
+        textColor = builder.textColor;
+        iconTint = builder.iconTint;
+        maskColor = builder.maskColor;
+        cornerRadiusDp = builder.cornerRadiusDp;
+        textSizeDp = builder.textSizeDp;
+    }
+
+    @ColorInt
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    @ColorInt
+    public int getTextColor() {
+        return textColor;
+    }
+
+    @ColorInt
+    public int getIconTint() {
+        return iconTint;
+    }
+
+    /**
+     * Returns the color of the full screen mask behind masked loading toasts.
+     */
+    @ColorInt
+    public int getMaskColor() {
+        return maskColor;
+    }
+
+    public float getCornerRadius() {
+        return cornerRadiusDp;
+    }
+
+    public float getTextSize() {
+        return textSizeDp;
+    }
+
+    @NonNull
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns this style in pixels for the configuration of {@code context}. Only converts again
+     * after the display density changed. Main thread only.
+     */
+    @NonNull
+    Resolved resolve(@NonNull Context context) {
+        Resources resources = context.getResources();
+        Configuration configuration = resources.getConfiguration();
+        Resolved resolved = this.resolved;
+        if (resolved == null || resolved.densityDpi != configuration.densityDpi) {
+            resolved = new Resolved(this, configuration.densityDpi, resources.getDisplayMetrics());
+            this.resolved = resolved;
+        }
+        return resolved;
+    }
+
+    /**
+     * A {@link ToastbarStyle} converted to pixels for one display density.
+     */
+    static final class Resolved {
+        final int densityDpi;
+        @ColorInt
+        final int textColor;
+        @NonNull
+        final ColorStateList iconTint;
+        final float textSize;
+        final int iconWidth;
+        final int iconHeight;
+        final int iconPaddingTop;
+        final int textPaddingHorizontal;
+        final int textMinHeight;
+        @NonNull
+        private final Drawable.ConstantState background;
+
+        Resolved(@NonNull ToastbarStyle style, int densityDpi, @NonNull DisplayMetrics metrics) {
+            this.densityDpi = densityDpi;
+            float density = metrics.density;
+            textColor = style.textColor;
+            iconTint = ColorStateList.valueOf(style.iconTint);
+            textSize = style.textSizeDp * density;
+            iconWidth = (int) (ICON_WIDTH_DP * density);
+            iconHeight = (int) (ICON_HEIGHT_DP * density);
+            iconPaddingTop = (int) (ICON_PADDING_TOP_DP * density);
+            textPaddingHorizontal = (int) (TEXT_PADDING_HORIZONTAL_DP * density);
+            textMinHeight = (int) (TEXT_MIN_HEIGHT_DP * density);
+
+            GradientDrawable drawable = new GradientDrawable();
+            drawable.setShape(GradientDrawable.RECTANGLE);
+            drawable.setCornerRadius((int) (style.cornerRadiusDp * density));
+            drawable.setColor(style.backgroundColor);
+            background = drawable.getConstantState();
+        }
+
+        /**
+         * Returns a content card background sharing its state with all others of this style. Must
+         * not be mutated.
+         */
+        @NonNull
+        Drawable newBackground() {
+            return background.newDrawable();
+        }
+    }
+
+    public static final class Builder {
+        @ColorInt
+        private int backgroundColor = 0xDD3C3C3C;
+        @ColorInt
+        private int textColor = Color.WHITE;
+        @ColorInt
+        private int iconTint = Color.WHITE;
+        @ColorInt
+        private int maskColor = 0x33000000;
+        private float cornerRadiusDp = 8;
+        private float textSizeDp = 14;
+
+        public Builder() {
+        }
+
+        Builder(@NonNull ToastbarStyle style) {
+            backgroundColor = style.backgroundColor;
+            textColor = style.textColor;
+            iconTint = style.iconTint;
+            maskColor = style.maskColor;
+            cornerRadiusDp = style.cornerRadiusDp;
+            textSizeDp = style.textSizeDp;
+        }
+
+        @NonNull
+        public Builder setBackgroundColor(@ColorInt int color) {
+            backgroundColor = color;
+            return this;
+        }
+
+        @NonNull
+        public Builder setTextColor(@ColorInt int color) {
+            textColor = color;
+            return this;
+        }
+
+        /**
+         * Sets the tint of the loading spinner.
+         */
+        @NonNull
+        public Builder setIconTint(@ColorInt int color) {
+            iconTint = color;
+            return this;
+        }
+
+        @NonNull
+        public Builder setMaskColor(@ColorInt int color) {
+            maskColor = color;
+            return this;
+        }
+
+        /**
+         * Sets the corner radius of the content card, in dp.
+         */
+        @NonNull
+        public Builder setCornerRadius(float radiusDp) {
+            cornerRadiusDp = radiusDp;
+            return this;
+        }
+
+        /**
+         * Sets the message text size, in dp so it does not follow the font scale.
+         */
+        @NonNull
+        public Builder setTextSize(float sizeDp) {
+            textSizeDp = sizeDp;
+            return this;
+        }
+
+        @NonNull
+        public ToastbarStyle build() {
+            return new ToastbarStyle(this);
+        }
+    }
+}
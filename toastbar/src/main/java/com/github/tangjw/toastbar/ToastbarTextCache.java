@@ -0,0 +1,145 @@
+package com.github.tangjw.toastbar;
+
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded LRU cache of measured toast text, filled ahead of time on a background thread.
+ *
+ * <p>Entries are keyed by the text, the width it was laid out for ({@link #WIDTH_UNBOUNDED} if the
+ * measurement does not depend on it) and an immutable style object describing everything else
+ * that affects measurement. Toast content asks for text to be {@link #precompute precomputed} as soon as it is
+ * set, so by the time the toast reaches the front of the {@link ToastbarManager} queue and is laid
+ * out, its text is usually measured already, and a repeated message is never measured again.
+ */
+final class ToastbarTextCache {
+
+    /**
+     * Measures text off the main thread. Must only touch its arguments and immutable state.
+     */
+    interface Measurer {
+        @NonNull
+        Object measure(@NonNull CharSequence text, int width);
+    }
+
+    /**
+     * The width of a measurement that does not depend on it, such as the desired width of a text.
+     * Unlike 0, never the width of a layout.
+     */
+    static final int WIDTH_UNBOUNDED = -1;
+
+    private static final int MAX_ENTRIES = 32;
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    private static final ToastbarTextCache instance = new ToastbarTextCache();
+
+    @NonNull
+    static ToastbarTextCache getInstance() {
+        return instance;
+    }
+
+    @NonNull
+    private final LruCache<Key, Object> cache = new LruCache<>(MAX_ENTRIES);
+    @NonNull
+    private final Executor executor;
+
+    private ToastbarTextCache() {
+        // A single low priority thread that goes away when no toast text is being measured
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Toastbar-text");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the measurement of {@code text} for {@code width} and {@code style}, or {@code null} if
+     * it has not been measured (yet).
+     */
+    @Nullable
+    Object get(@NonNull CharSequence text, int width, @NonNull Object style) {
+        return cache.get(new Key(text, width, style));
+    }
+
+    /**
+     * Caches {@code measured}. Ignored for anything but a plain string, whose spans could be
+     * mutated after the fact.
+     */
+    void put(@NonNull CharSequence text, int width, @NonNull Object style, @NonNull Object measured) {
+        if (isCacheable(text)) {
+            cache.put(new Key(text, width, style), measured);
+        }
+    }
+
+    /**
+     * Measures {@code text} on the background thread unless it is cached already.
+     */
+    void precompute(@NonNull CharSequence text, int width, @NonNull Object style,
+                    @NonNull Measurer measurer) {
+        if (!isCacheable(text)) {
+            return;
+        }
+        final Key key = new Key(text, width, style);
+        if (cache.get(key) != null) {
+            return;
+        }
+        executor.execute(() -> {
+            if (cache.get(key) == null) {
+                cache.put(key, measurer.measure(key.text, key.width));
+            }
+        });
+    }
+
+    void clear() {
+        cache.evictAll();
+    }
+
+    private static boolean isCacheable(@NonNull CharSequence text) {
+        return text instanceof String && text.length() > 0;
+    }
+
+    private static final class Key {
+        @NonNull
+        final CharSequence text;
+        final int width;
+        @NonNull
+        final Object style;
+
+        Key(@NonNull CharSequence text, int width, @NonNull Object style) {
+            this.text = text;
+            this.width = width;
+            this.style = style;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && text.equals(other.text) && style.equals(other.style);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + width;
+            return 31 * result + style.hashCode();
+        }
+    }
+}
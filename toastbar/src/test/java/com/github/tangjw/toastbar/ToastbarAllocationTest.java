@@ -0,0 +1,206 @@
+package com.github.tangjw.toastbar;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.view.ViewGroup;
+
+import androidx.core.content.ContextCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Checks how much one full toast cycle allocates on the main thread: made, shown, timed out or
+ * dismissed, animated out and recycled. Runs each variant with a paused looper until the pool and
+ * caches are warm, then compares the average of the measured cycles to the budget checked in as
+ * {@code allocation-budget.properties}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class ToastbarAllocationTest {
+
+    private static final String BUDGET_RESOURCE = "/allocation-budget.properties";
+    private static final String UPDATE_PROPERTY = "toastbar.allocationBudget.update";
+    // Headroom written on top of the measured cost when re-baselining
+    private static final double UPDATE_HEADROOM = 1.25;
+
+    private static final int WARMUP_CYCLES = 20;
+    private static final int MEASURED_CYCLES = 50;
+    // Longer than any toast duration and its exit animation
+    private static final Duration CYCLE_TIME = Duration.ofSeconds(5);
+
+    private interface Cycle {
+        Toastbar show();
+    }
+
+    private ViewGroup parent;
+    private Drawable icon;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        parent = activity.findViewById(android.R.id.content);
+        icon = ContextCompat.getDrawable(activity, R.drawable.ic_done_toastbar);
+        Toastbar.setRenderMode(Toastbar.RENDER_MODE_HIERARCHY);
+    }
+
+    @Test
+    public void plainCycle() {
+        assertWithinBudget("plain", () -> {
+            Toastbar toastbar = Toastbar.make(parent, "Saved", Toastbar.LENGTH_SHORT);
+            toastbar.show();
+            return toastbar;
+        });
+    }
+
+    @Test
+    public void loadingCycle() {
+        assertWithinBudget("loading", () -> {
+            Toastbar toastbar = Toastbar.makeLoading(parent, "Loading", false);
+            toastbar.setDuration(Toastbar.LENGTH_SHORT);
+            toastbar.show();
+            return toastbar;
+        });
+    }
+
+    @Test
+    public void iconCycle() {
+        assertWithinBudget("icon", () -> {
+            Toastbar toastbar = Toastbar.make(parent, "Done", Toastbar.LENGTH_SHORT);
+            toastbar.setIcon(icon);
+            toastbar.show();
+            return toastbar;
+        });
+    }
+
+    @Test
+    public void maskedCycle() {
+        assertWithinBudget("masked", () -> {
+            Toastbar toastbar = Toastbar.makeLoading(parent, "Loading", true);
+            toastbar.setDuration(Toastbar.LENGTH_SHORT);
+            toastbar.show();
+            return toastbar;
+        });
+    }
+
+    @Test
+    public void maskedWindowCycle() {
+        // The panel over the window and the recorded scrim, instead of the content tree
+        Toastbar.setDisplayMode(Toastbar.DISPLAY_MODE_WINDOW);
+        try {
+            assertWithinBudget("maskedWindow", () -> {
+                Toastbar toastbar = Toastbar.makeLoading(parent, "Loading", true);
+                toastbar.setDuration(Toastbar.LENGTH_SHORT);
+                toastbar.show();
+                return toastbar;
+            });
+        } finally {
+            Toastbar.setDisplayMode(Toastbar.DISPLAY_MODE_CONTENT);
+        }
+    }
+
+    private void assertWithinBudget(String variant, Cycle cycle) {
+        com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_CYCLES; i++) {
+            runCycle(cycle);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CYCLES; i++) {
+            runCycle(cycle);
+        }
+        long bytesPerCycle = (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_CYCLES;
+
+        String budgetFile = System.getProperty(UPDATE_PROPERTY);
+        if (budgetFile != null) {
+            updateBudget(new File(budgetFile), variant, (long) (bytesPerCycle * UPDATE_HEADROOM));
+            return;
+        }
+        long budget = loadBudget(variant);
+        if (bytesPerCycle > budget) {
+            fail("A " + variant + " toast cycle allocated " + bytesPerCycle + " bytes, over its budget of "
+                    + budget + ". Re-baseline with -PupdateAllocationBudget if this is intended.");
+        }
+    }
+
+    private void runCycle(Cycle cycle) {
+        Toastbar toastbar = cycle.show();
+        shadowOf(Looper.getMainLooper()).idleFor(CYCLE_TIME);
+        assertFalse(toastbar.isShownOrQueued());
+        assertNull(toastbar.getView().getParent());
+        assertTrue(toastbar.isRecycled());
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(sunThreads.isThreadAllocatedMemorySupported());
+        sunThreads.setThreadAllocatedMemoryEnabled(true);
+        return sunThreads;
+    }
+
+    private static long loadBudget(String variant) {
+        Properties budgets = new Properties();
+        try (InputStream in = ToastbarAllocationTest.class.getResourceAsStream(BUDGET_RESOURCE)) {
+            if (in == null) {
+                throw new AssertionError("Missing " + BUDGET_RESOURCE);
+            }
+            budgets.load(in);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        String budget = budgets.getProperty(variant);
+        if (budget == null) {
+            throw new AssertionError("No budget for " + variant + " in " + BUDGET_RESOURCE);
+        }
+        return Long.parseLong(budget.trim());
+    }
+
+    /**
+     * Replaces the line of {@code variant} in the budget file, keeping its comments.
+     */
+    private static void updateBudget(File file, String variant, long budget) {
+        try {
+            List<String> lines = new ArrayList<>(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+            String line = variant + "=" + budget;
+            boolean replaced = false;
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).startsWith(variant + "=")) {
+                    lines.set(i, line);
+                    replaced = true;
+                }
+            }
+            if (!replaced) {
+                lines.add(line);
+            }
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
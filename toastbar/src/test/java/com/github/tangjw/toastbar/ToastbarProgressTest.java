@@ -0,0 +1,72 @@
+package com.github.tangjw.toastbar;
+
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.LooperMode;
+
+/**
+ * Checks that the ring of {@link Toastbar#makeProgress} is shown in both render modes, before and
+ * after the toast is shown and its progress set.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class ToastbarProgressTest {
+
+    private ViewGroup parent;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        parent = activity.findViewById(android.R.id.content);
+    }
+
+    @After
+    public void tearDown() {
+        Toastbar.setRenderMode(Toastbar.RENDER_MODE_HIERARCHY);
+    }
+
+    @Test
+    public void progressIndicatorIsVisibleInHierarchyMode() {
+        Toastbar.setRenderMode(Toastbar.RENDER_MODE_HIERARCHY);
+        Toastbar toastbar = Toastbar.makeProgress(parent, "Uploading", false);
+        ToastContentLayout content = (ToastContentLayout) getContent(toastbar);
+        assertTrue(content.isIconVisible());
+        assertTrue(content.progressBar.getIndeterminateDrawable() instanceof ToastbarProgressDrawable);
+
+        showWithProgress(toastbar);
+        assertTrue(content.isIconVisible());
+    }
+
+    @Test
+    public void progressIndicatorIsVisibleInFlatMode() {
+        Toastbar.setRenderMode(Toastbar.RENDER_MODE_FLAT);
+        Toastbar toastbar = Toastbar.makeProgress(parent, "Uploading", false);
+        ToastContent content = getContent(toastbar);
+        assertTrue(content instanceof ToastContentView);
+        assertTrue(content.isIconVisible());
+
+        showWithProgress(toastbar);
+        assertTrue(content.isIconVisible());
+    }
+
+    private static void showWithProgress(Toastbar toastbar) {
+        toastbar.show();
+        toastbar.setProgress(40);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static ToastContent getContent(Toastbar toastbar) {
+        return (ToastContent) ((ViewGroup) toastbar.getView()).getChildAt(0);
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.tangjw.toastbar;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import com.github.tangjw.toastbar.core.ToastRecord;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.LooperMode;
+
+import java.time.Duration;
+
+/**
+ * Checks that a toast made on a parent that is not attached yet is queued in the window the parent
+ * ends up in, and found there by any view of that window.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class ToastbarWindowKeyTest {
+
+    private ViewGroup content;
+    private FrameLayout parent;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        content = activity.findViewById(android.R.id.content);
+        parent = new FrameLayout(activity);
+    }
+
+    @Test
+    public void toastMadeBeforeAttachIsQueuedInItsWindow() {
+        ToastbarManager manager = ToastbarManager.getInstance();
+        Toastbar toastbar = Toastbar.make(parent, "Saved", Toastbar.LENGTH_LONG);
+        toastbar.show();
+        assertTrue(toastbar.isShownOrQueued());
+        assertNull(manager.getCurrentSnackbar(content));
+
+        content.addView(parent);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertTrue(toastbar.isShown());
+        ToastRecord current = manager.getCurrentSnackbar(parent);
+        assertNotNull(current);
+        assertSame(current, manager.getCurrentSnackbar(content));
+
+        toastbar.dismiss();
+        // Past the exit animation, shorter than the toast's own timeout
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+        assertFalse(toastbar.isShownOrQueued());
+        assertNull(manager.getCurrentSnackbar(content));
+    }
+
+    @Test
+    public void toastDismissedBeforeAttachIsNeverQueued() {
+        Toastbar toastbar = Toastbar.make(parent, "Saved", Toastbar.LENGTH_LONG);
+        toastbar.show();
+        toastbar.dismiss();
+        assertFalse(toastbar.isShownOrQueued());
+
+        content.addView(parent);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertFalse(toastbar.isShownOrQueued());
+        assertNull(ToastbarManager.getInstance().getCurrentSnackbar(content));
+    }
+}